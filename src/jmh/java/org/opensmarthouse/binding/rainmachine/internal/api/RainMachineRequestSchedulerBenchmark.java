@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineRequestScheduler.Lane;
+
+/**
+ * Measures the cost the {@link RainMachineRequestScheduler} adds to each request. Responses are completed on a
+ * separate thread, as they are by the HTTP client, so requests queue behind the in-flight limit as they do during a
+ * poll. The rate limiter is set high enough that it never makes a request wait, so only its overhead is measured.
+ *
+ * @author agent - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainMachineRequestSchedulerBenchmark {
+
+    private static final Object RESPONSE = new Object();
+
+    @Param({ "1", "5", "20" })
+    public int requests;
+
+    @Param({ "false", "true" })
+    public boolean rateLimited;
+
+    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private ExecutorService responseExecutor = Executors.newSingleThreadExecutor();
+    private RainMachineRequestScheduler requestScheduler = new RainMachineRequestScheduler(3, null, scheduler,
+            new RainMachineMetrics());
+
+    @Setup
+    public void setup() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        responseExecutor = Executors.newSingleThreadExecutor();
+        requestScheduler = new RainMachineRequestScheduler(3,
+                rateLimited ? new RainMachineRateLimiter(1e9, 1000, 10) : null, scheduler, new RainMachineMetrics());
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestScheduler.dispose();
+        scheduler.shutdownNow();
+        responseExecutor.shutdownNow();
+    }
+
+    /**
+     * The requests made by a poll, all sent in the background lane
+     */
+    @Benchmark
+    public Object poll() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+        for (int i = 0; i < requests; i++) {
+            futures[i] = requestScheduler.submit(Lane.BACKGROUND, this::respond);
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+
+    /**
+     * A zone command sent while a poll is waiting for a slot
+     */
+    @Benchmark
+    public Object commandDuringPoll() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requests + 1];
+        for (int i = 0; i < requests; i++) {
+            futures[i] = requestScheduler.submit(Lane.BACKGROUND, this::respond);
+        }
+        futures[requests] = requestScheduler.submit(Lane.INTERACTIVE, this::respond);
+        return futures[requests].thenCombine(CompletableFuture.allOf(futures), (command, poll) -> command).join();
+    }
+
+    private CompletableFuture<Object> respond() {
+        return CompletableFuture.supplyAsync(() -> RESPONSE, responseExecutor);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares the streaming {@link RainMachineZoneParser} with the ways Gson can read the same <code>zone</code>
+ * response. The Gson string benchmark is the path the binding used before the streaming parser.
+ *
+ * @author agent - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainMachineZoneParserBenchmark {
+
+    @Param({ "8", "16", "32" })
+    public int zones;
+
+    private final Gson gson = new Gson();
+    private final RainMachineZoneParser parser = new RainMachineZoneParser();
+    private byte[] payload = new byte[0];
+
+    @Setup
+    public void setup() {
+        payload = createPayload(zones).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public RainMachineZonesInformation streamingParser() throws IOException {
+        return parser.parse(new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public RainMachineZonesInformation gsonFromString() {
+        return gson.fromJson(new String(payload, StandardCharsets.UTF_8), RainMachineZonesInformation.class);
+    }
+
+    @Benchmark
+    public RainMachineZonesInformation gsonFromReader() {
+        return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8),
+                RainMachineZonesInformation.class);
+    }
+
+    @Benchmark
+    public JsonElement gsonTree() {
+        return JsonParser.parseReader(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a <code>zone</code> response in the form returned by the controller, including the fields that the
+     * binding does not read
+     *
+     * @param count the number of zones
+     * @return the response
+     */
+    static String createPayload(int count) {
+        StringBuilder builder = new StringBuilder("{\"zones\":[");
+        for (int uid = 1; uid <= count; uid++) {
+            if (uid > 1) {
+                builder.append(',');
+            }
+            boolean running = uid == 1;
+            builder.append("{\"uid\":").append(uid);
+            builder.append(",\"name\":\"Zone ").append(uid).append('"');
+            builder.append(",\"state\":").append(running ? 1 : 0);
+            builder.append(",\"active\":true,\"userDuration\":0,\"machineDuration\":").append(running ? 600 : 0);
+            builder.append(",\"remaining\":").append(running ? 420 : 0);
+            builder.append(",\"cycle\":0,\"noOfCycles\":0,\"restriction\":false,\"type\":2,\"master\":false");
+            builder.append(",\"waterSense\":false,\"valveid\":").append(uid).append('}');
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.discovery;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares parsing a discovery reply from a string, as it was done when the whole datagram buffer was copied into a
+ * string, with parsing it directly from the receive buffer.
+ *
+ * @author agent - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainMachineDiscoveryDataBenchmark {
+
+    private static final String MESSAGE = "SPRINKLER||5c:31:3e:01:02:03||RainMachine Garden||https://192.168.1.23:8080/";
+
+    // The receive buffer is larger than the datagram, as it is in the discovery service
+    private final byte[] buffer = new byte[1024];
+    private int length;
+
+    @Setup
+    public void setup() {
+        byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(message, 0, buffer, 0, message.length);
+        length = message.length;
+    }
+
+    @Benchmark
+    public RainMachineDiscoveryData fromString() {
+        return new RainMachineDiscoveryData(new String(buffer, 0, length, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public RainMachineDiscoveryData fromBuffer() {
+        return RainMachineDiscoveryData.parse(ByteBuffer.wrap(buffer, 0, length));
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.core.thing.binding.builder.ThingBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineBindingConstants;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineZoneInformation;
+
+/**
+ * Measures the fan-out of a zone poll to the zone handlers, as done by the bridge after each poll. The zone handlers
+ * pass their channel updates to a {@link Blackhole} in place of the framework callback.
+ * <p>
+ * The <code>dispatch</code> benchmark goes through the {@link RainMachineZoneDispatcher}, and the
+ * <code>updateAll</code> benchmark sends every channel of every zone, as the bridge did before the dispatcher. In each
+ * poll one zone is running and its remaining time changes.
+ *
+ * @author agent - Initial contribution
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainMachineZoneDispatcherBenchmark {
+
+    @Param({ "8", "16", "32" })
+    public int zones;
+
+    private final RainMachineZoneDispatcher dispatcher = new RainMachineZoneDispatcher();
+    private final List<RainMachineZoneInformation> zoneList = new ArrayList<>();
+    private final List<BlackholeZoneHandler> handlers = new ArrayList<>();
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        for (int uid = 1; uid <= zones; uid++) {
+            RainMachineZoneInformation zone = new RainMachineZoneInformation();
+            zone.uid = uid;
+            zone.name = "Zone " + uid;
+            zone.active = true;
+            if (uid == 1) {
+                zone.state = RainMachineZoneInformation.STATE_RUNNING;
+                zone.remaining = Integer.MAX_VALUE;
+            }
+            zoneList.add(zone);
+            handlers.add(new BlackholeZoneHandler(blackhole, uid));
+        }
+    }
+
+    @Benchmark
+    public void dispatch() {
+        zoneList.get(0).remaining--;
+        for (int i = 0; i < zoneList.size(); i++) {
+            dispatcher.dispatch(zoneList.get(i), handlers.get(i));
+        }
+    }
+
+    @Benchmark
+    public void updateAll() {
+        zoneList.get(0).remaining--;
+        for (int i = 0; i < zoneList.size(); i++) {
+            RainMachineZoneInformation zone = zoneList.get(i);
+            BlackholeZoneHandler handler = handlers.get(i);
+            handler.updateZoneOnline();
+            handler.updateZoneState(zone.state);
+            handler.updateZoneActive(zone.active);
+            handler.updateZoneRemaining(zone.remaining, zone.state == RainMachineZoneInformation.STATE_RUNNING);
+        }
+    }
+
+    /**
+     * A zone handler that consumes its updates rather than passing them to the framework
+     */
+    private static class BlackholeZoneHandler extends RainMachineZoneHandler {
+        private final Blackhole blackhole;
+
+        BlackholeZoneHandler(Blackhole blackhole, int uid) {
+            super(ThingBuilder.create(RainMachineBindingConstants.RAINMACHINE_ZONE, "zone" + uid).build());
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        protected boolean updateZoneOnline() {
+            blackhole.consume(getThing());
+            return true;
+        }
+
+        @Override
+        protected void updateZoneState(int state) {
+            blackhole.consume(state);
+        }
+
+        @Override
+        protected void updateZoneActive(boolean active) {
+            blackhole.consume(active);
+        }
+
+        @Override
+        protected void updateZoneRemaining(int remaining, boolean running) {
+            blackhole.consume(remaining);
+            blackhole.consume(running);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.loadtest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * The {@link RainMachineFakeController} serves the RainMachine API for a number of fake controllers, each on its own
+ * port of the loopback address, so that each controller is a separate destination for the HTTP client just as real
+ * controllers are.
+ * <p>
+ * Every controller waters its zones in turn, one zone at a time, so zone state keeps changing while the bridges poll.
+ * Zones can also be started and stopped with commands. Responses are delayed by a configurable latency, and a
+ * configurable fraction of requests fail with an HTTP 500 error.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineFakeController {
+
+    private static final String API_REFERENCE = "/api/4/";
+
+    /**
+     * The time each zone waters for when the controller waters the zones in turn
+     */
+    private static final long ZONE_SLOT = TimeUnit.SECONDS.toMillis(90);
+
+    private final int controllerCount;
+    private final int zoneCount;
+
+    private final Server server;
+    private final ScheduledExecutorService responseScheduler = Executors.newScheduledThreadPool(2);
+    private final Map<Integer, ControllerState> controllers = new ConcurrentHashMap<>();
+
+    private volatile long latency = 0;
+    private volatile double errorRate = 0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param controllerCount the number of controllers to serve
+     * @param zoneCount the number of zones on each controller
+     */
+    public RainMachineFakeController(int controllerCount, int zoneCount) {
+        this.controllerCount = controllerCount;
+        this.zoneCount = zoneCount;
+
+        // Each connector uses one selector thread
+        QueuedThreadPool threadPool = new QueuedThreadPool(controllerCount + 64, 8);
+        threadPool.setName("rainmachine-fake");
+        threadPool.setDaemon(true);
+        server = new Server(threadPool);
+        server.setHandler(new ApiHandler());
+    }
+
+    /**
+     * Starts the controllers on free ports
+     *
+     * @throws Exception if the server could not be started
+     */
+    public void start() throws Exception {
+        for (int i = 0; i < controllerCount; i++) {
+            ServerConnector connector = new ServerConnector(server, 0, 1);
+            connector.setHost("127.0.0.1");
+            connector.setPort(0);
+            server.addConnector(connector);
+        }
+        server.start();
+
+        for (int i = 0; i < server.getConnectors().length; i++) {
+            int port = ((ServerConnector) server.getConnectors()[i]).getLocalPort();
+            controllers.put(port, new ControllerState(port, zoneCount, i * ZONE_SLOT / controllerCount));
+        }
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+        responseScheduler.shutdownNow();
+    }
+
+    /**
+     * @return the address of each controller, in a form that can be used as the bridge host
+     */
+    public List<String> getAddresses() {
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < server.getConnectors().length; i++) {
+            addresses.add("http://127.0.0.1:" + ((ServerConnector) server.getConnectors()[i]).getLocalPort());
+        }
+        return addresses;
+    }
+
+    /**
+     * Sets the delay before each response is sent
+     *
+     * @param latency the delay in milliseconds
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the fraction of requests that fail with an HTTP 500 error
+     *
+     * @param errorRate the fraction of requests, between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @return the number of requests served
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests that were failed by error injection
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    private class ApiHandler extends AbstractHandler {
+        @Override
+        public void handle(@Nullable String target, @Nullable Request baseRequest,
+                @Nullable HttpServletRequest request, @Nullable HttpServletResponse response) throws IOException {
+            if (target == null || baseRequest == null || request == null || response == null) {
+                return;
+            }
+            baseRequest.setHandled(true);
+            requests.incrementAndGet();
+
+            ControllerState controller = controllers.get(request.getLocalPort());
+            int status;
+            String content;
+            if (controller == null || !target.startsWith(API_REFERENCE)) {
+                status = HttpServletResponse.SC_NOT_FOUND;
+                content = "";
+            } else if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+                content = "";
+            } else {
+                String body = "POST".equals(request.getMethod()) ? readBody(request) : "";
+                String path = target.substring(API_REFERENCE.length());
+                String result = controller.handle(path, request.getParameter("access_token"), body);
+                status = result == null ? HttpServletResponse.SC_UNAUTHORIZED : HttpServletResponse.SC_OK;
+                content = result == null ? "" : result;
+            }
+
+            long latency = RainMachineFakeController.this.latency;
+            if (latency <= 0) {
+                respond(response, status, content);
+                return;
+            }
+
+            AsyncContext async = request.startAsync();
+            async.setTimeout(0);
+            responseScheduler.schedule(() -> {
+                try {
+                    respond(response, status, content);
+                } catch (IOException e) {
+                    // The client has gone away
+                } finally {
+                    async.complete();
+                }
+            }, latency, TimeUnit.MILLISECONDS);
+        }
+
+        private String readBody(HttpServletRequest request) throws IOException {
+            StringBuilder body = new StringBuilder();
+            char[] buffer = new char[256];
+            int read;
+            while ((read = request.getReader().read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+            return body.toString();
+        }
+
+        private void respond(HttpServletResponse response, int status, String content) throws IOException {
+            response.setStatus(status);
+            response.setContentType("application/json");
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            PrintWriter writer = response.getWriter();
+            writer.write(content);
+            writer.flush();
+        }
+    }
+
+    /**
+     * The state of one fake controller
+     */
+    private static class ControllerState {
+        private final String token;
+        private final int zoneCount;
+        private final long offset;
+        private final long startTime = System.currentTimeMillis();
+
+        // The end of watering for zones started by command, and the end of the slot for zones stopped by command
+        private final Map<Integer, Long> started = new HashMap<>();
+        private final Map<Integer, Long> stopped = new HashMap<>();
+
+        ControllerState(int port, int zoneCount, long offset) {
+            this.token = "token-" + port;
+            this.zoneCount = zoneCount;
+            this.offset = offset;
+        }
+
+        /**
+         * Handles a request
+         *
+         * @return the response content, or null if the access token is not valid
+         */
+        synchronized @Nullable String handle(String path, @Nullable String accessToken, String body) {
+            if ("apiVer".equals(path)) {
+                return "{\"apiVer\":\"4.3.0\",\"hwVer\":\"3\",\"swVer\":\"4.0.1144\"}";
+            }
+            if ("auth/login".equals(path)) {
+                return "{\"access_token\":\"" + token + "\",\"expires_in\":157680000,\"statusCode\":0}";
+            }
+            if (!token.equals(accessToken)) {
+                return null;
+            }
+
+            long now = System.currentTimeMillis();
+            if ("zone".equals(path)) {
+                return zones(now);
+            }
+            if ("watering/queue".equals(path)) {
+                return queue(now);
+            }
+            if ("provision".equals(path)) {
+                return "{\"system\":{\"netName\":\"Fake RainMachine\"},\"rainSensorRainStart\":null}";
+            }
+            if ("diag".equals(path)) {
+                return "{\"uptime\":\"" + TimeUnit.MILLISECONDS.toSeconds(now - startTime) + "s\"}";
+            }
+            if ("program".equals(path) || "watering/program".equals(path)) {
+                return "{\"programs\":[]}";
+            }
+            if (path.startsWith("watering/log/details/")) {
+                return "{\"waterLog\":{\"days\":[]}}";
+            }
+            if (path.startsWith("mixer/")) {
+                return "{\"mixerDataByDate\":[]}";
+            }
+            if (path.startsWith("zone/") && (path.endsWith("/start") || path.endsWith("/stop"))) {
+                return zoneCommand(path, body, now);
+            }
+            return "{\"statusCode\":1,\"message\":\"Unknown endpoint\"}";
+        }
+
+        private String zoneCommand(String path, String body, long now) {
+            int uid;
+            try {
+                uid = Integer.parseInt(path.substring("zone/".length(), path.lastIndexOf('/')));
+            } catch (NumberFormatException e) {
+                return commandResponse(1);
+            }
+            if (uid < 1 || uid > zoneCount) {
+                return commandResponse(1);
+            }
+
+            if (path.endsWith("/stop")) {
+                stop(uid, now);
+                return commandResponse(0);
+            }
+
+            int time = 600;
+            JsonElement request = JsonParser.parseString(body.isEmpty() ? "{}" : body);
+            if (request.isJsonObject()) {
+                JsonObject object = request.getAsJsonObject();
+                if (object.has("time")) {
+                    time = object.get("time").getAsInt();
+                }
+            }
+            started.put(uid, now + TimeUnit.SECONDS.toMillis(time));
+            stopped.remove(uid);
+            return commandResponse(0);
+        }
+
+        private void stop(int uid, long now) {
+            started.remove(uid);
+            if (getScheduledZone(now) == uid) {
+                stopped.put(uid, now + getSlotRemaining(now));
+            }
+        }
+
+        private String commandResponse(int statusCode) {
+            return "{\"statusCode\":" + statusCode + ",\"message\":\"" + (statusCode == 0 ? "OK" : "Error") + "\"}";
+        }
+
+        /**
+         * @return the zone that is watering in turn, or 0 if it was stopped by command
+         */
+        private int getScheduledZone(long now) {
+            int uid = (int) (((now + offset) / ZONE_SLOT) % zoneCount) + 1;
+            Long stoppedUntil = stopped.get(uid);
+            return stoppedUntil != null && stoppedUntil > now ? 0 : uid;
+        }
+
+        private long getSlotRemaining(long now) {
+            return ZONE_SLOT - (now + offset) % ZONE_SLOT;
+        }
+
+        /**
+         * @return the remaining watering time of a zone in seconds, or 0 if the zone is not watering
+         */
+        private int getRemaining(int uid, long now) {
+            Long end = started.get(uid);
+            if (end != null && end > now) {
+                return (int) TimeUnit.MILLISECONDS.toSeconds(end - now + 999);
+            }
+            if (getScheduledZone(now) == uid) {
+                return (int) TimeUnit.MILLISECONDS.toSeconds(getSlotRemaining(now) + 999);
+            }
+            return 0;
+        }
+
+        private String zones(long now) {
+            StringBuilder builder = new StringBuilder("{\"zones\":[");
+            for (int uid = 1; uid <= zoneCount; uid++) {
+                int remaining = getRemaining(uid, now);
+                builder.append(uid == 1 ? "" : ",").append("{\"uid\":").append(uid);
+                builder.append(",\"name\":\"Zone ").append(uid).append('"');
+                builder.append(",\"state\":").append(remaining > 0 ? 1 : 0);
+                builder.append(",\"active\":true,\"userDuration\":0,\"machineDuration\":0");
+                builder.append(",\"remaining\":").append(remaining);
+                builder.append(",\"cycle\":").append(remaining > 0 ? 1 : 0);
+                builder.append(",\"noOfCycles\":").append(remaining > 0 ? 1 : 0);
+                builder.append(",\"restriction\":false,\"type\":2,\"master\":false}");
+            }
+            return builder.append("]}").toString();
+        }
+
+        private String queue(long now) {
+            StringBuilder builder = new StringBuilder("{\"queue\":[");
+            boolean first = true;
+            for (int uid = 1; uid <= zoneCount; uid++) {
+                int remaining = getRemaining(uid, now);
+                if (remaining == 0) {
+                    continue;
+                }
+                builder.append(first ? "" : ",").append("{\"zid\":").append(uid);
+                builder.append(",\"running\":true,\"remaining\":").append(remaining);
+                builder.append(",\"cycle\":1,\"cycles\":1}");
+                first = false;
+            }
+            return builder.append("]}").toString();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.openhab.core.common.ThreadPoolManager;
+import org.openhab.core.config.core.Configuration;
+import org.openhab.core.io.net.http.HttpClientFactory;
+import org.openhab.core.thing.Bridge;
+import org.openhab.core.thing.Thing;
+import org.openhab.core.thing.ThingStatus;
+import org.openhab.core.thing.ThingStatusInfo;
+import org.openhab.core.thing.ThingUID;
+import org.openhab.core.thing.binding.ThingHandlerCallback;
+import org.openhab.core.thing.binding.builder.BridgeBuilder;
+import org.openhab.core.thing.binding.builder.ThingBuilder;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineAddressCache;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineBindingConstants;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineSharedHttpClientPool;
+import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachineBridgeHandler;
+import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachinePollScheduler;
+import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachineStartupMonitor;
+import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachineZoneHandler;
+
+/**
+ * The {@link RainMachineLoadHarness} runs many RainMachine bridges, each with its zones, against a
+ * {@link RainMachineFakeController}, and reports the poll latency, the threads and the heap used.
+ * <p>
+ * The bridges use the same HTTP client pool and poll scheduler as the binding. The framework is replaced by a
+ * callback that records the thing status and counts the channel updates. Options are given as
+ * <code>name=value</code> arguments:
+ * <ul>
+ * <li><code>bridges</code> - the number of bridges (200)</li>
+ * <li><code>zones</code> - the number of zones on each controller, each with a zone thing (16)</li>
+ * <li><code>refresh</code> - the bridge refresh period in seconds (10)</li>
+ * <li><code>duration</code> - the run time in seconds (120)</li>
+ * <li><code>latency</code> - the controller response latency in milliseconds (50)</li>
+ * <li><code>errors</code> - the fraction of requests that fail with an HTTP 500 error (0.01)</li>
+ * <li><code>rateLimit</code> - the bridge request rate limit (2)</li>
+ * <li><code>report</code> - the report interval in seconds (10)</li>
+ * </ul>
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineLoadHarness {
+
+    private final int bridgeCount;
+    private final int zoneCount;
+    private final int refresh;
+    private final int duration;
+    private final int report;
+    private final double rateLimit;
+
+    private final RainMachineFakeController controller;
+    private final RainMachineSharedHttpClientPool clientPool = new RainMachineSharedHttpClientPool(
+            createHttpClientFactory(),
+            ThreadPoolManager.getScheduledPool(RainMachineBindingConstants.THREAD_POOL_NAME));
+    private final TimedPollScheduler pollScheduler = new TimedPollScheduler();
+    private final RainMachineStartupMonitor startupMonitor = new RainMachineStartupMonitor();
+    private final RainMachineAddressCache addressCache = new MemoryAddressCache();
+
+    private final Map<ThingUID, Bridge> bridges = new ConcurrentHashMap<>();
+    private final Map<ThingUID, List<RainMachineZoneHandler>> zoneHandlers = new ConcurrentHashMap<>();
+    private final List<RainMachineBridgeHandler> bridgeHandlers = new ArrayList<>();
+    private final AtomicLong stateUpdates = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.err.println("Options are given as name=value: " + arg);
+                System.exit(1);
+            }
+            options.put(option[0], option[1]);
+        }
+
+        new RainMachineLoadHarness(options).run();
+        // The framework thread pools do not use daemon threads
+        System.exit(0);
+    }
+
+    private RainMachineLoadHarness(Map<String, String> options) {
+        bridgeCount = Integer.parseInt(options.getOrDefault("bridges", "200"));
+        zoneCount = Integer.parseInt(options.getOrDefault("zones", "16"));
+        refresh = Integer.parseInt(options.getOrDefault("refresh", "10"));
+        duration = Integer.parseInt(options.getOrDefault("duration", "120"));
+        report = Integer.parseInt(options.getOrDefault("report", "10"));
+        rateLimit = Double.parseDouble(options.getOrDefault("rateLimit", "2"));
+
+        controller = new RainMachineFakeController(bridgeCount, zoneCount);
+        controller.setLatency(Long.parseLong(options.getOrDefault("latency", "50")));
+        controller.setErrorRate(Double.parseDouble(options.getOrDefault("errors", "0.01")));
+    }
+
+    private void run() throws Exception {
+        controller.start();
+        System.out.printf("Fake controllers started: %d controllers, %d zones each%n", bridgeCount, zoneCount);
+        printResources("Before bridges");
+
+        long startTime = System.nanoTime();
+        List<String> addresses = controller.getAddresses();
+        for (int i = 0; i < addresses.size(); i++) {
+            startBridge(i, addresses.get(i));
+        }
+
+        long reportTime = System.nanoTime();
+        long endTime = startTime + TimeUnit.SECONDS.toNanos(duration);
+        boolean allOnline = false;
+        while (System.nanoTime() < endTime) {
+            Thread.sleep(250);
+            if (!allOnline && getOnline() == bridgeCount) {
+                allOnline = true;
+                System.out.printf("All bridges online after %dms%n",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            }
+            if (System.nanoTime() - reportTime >= TimeUnit.SECONDS.toNanos(report)) {
+                reportTime = System.nanoTime();
+                printReport(pollScheduler.interval.drain(),
+                        TimeUnit.NANOSECONDS.toSeconds(reportTime - startTime) + "s");
+            }
+        }
+
+        printReport(pollScheduler.total.drain(), "Total");
+        bridgeHandlers.forEach(RainMachineBridgeHandler::dispose);
+        pollScheduler.dispose();
+        clientPool.dispose();
+        controller.stop();
+    }
+
+    private void startBridge(int index, String address) {
+        Configuration configuration = new Configuration();
+        configuration.put("host", address);
+        configuration.put("password", "fake");
+        configuration.put("refresh", BigDecimal.valueOf(refresh));
+        configuration.put("rateLimit", BigDecimal.valueOf(rateLimit));
+        Bridge bridge = BridgeBuilder.create(RainMachineBindingConstants.RAINMACHINE_BRIDGE, "fake" + index)
+                .withConfiguration(configuration).build();
+        bridges.put(bridge.getUID(), bridge);
+
+        RainMachineBridgeHandler bridgeHandler = new RainMachineBridgeHandler(bridge, addressCache, clientPool,
+                pollScheduler, startupMonitor);
+        bridge.setHandler(bridgeHandler);
+        bridgeHandler.setCallback(createCallback());
+        bridgeHandlers.add(bridgeHandler);
+
+        List<RainMachineZoneHandler> zones = new ArrayList<>();
+        for (int uid = 1; uid <= zoneCount; uid++) {
+            Configuration zoneConfiguration = new Configuration();
+            zoneConfiguration.put("uid", BigDecimal.valueOf(uid));
+            Thing zone = ThingBuilder
+                    .create(RainMachineBindingConstants.RAINMACHINE_ZONE,
+                            new ThingUID(RainMachineBindingConstants.RAINMACHINE_ZONE, bridge.getUID(), "zone" + uid))
+                    .withBridge(bridge.getUID()).withConfiguration(zoneConfiguration).build();
+            RainMachineZoneHandler zoneHandler = new RainMachineZoneHandler(zone);
+            zoneHandler.setCallback(createCallback());
+            zones.add(zoneHandler);
+        }
+        zoneHandlers.put(bridge.getUID(), zones);
+
+        bridgeHandler.initialize();
+        zones.forEach(RainMachineZoneHandler::initialize);
+    }
+
+    /**
+     * Creates a callback that stands in for the framework. Thing status is recorded in the thing, and a bridge status
+     * change is passed on to the zone handlers of the bridge.
+     */
+    private ThingHandlerCallback createCallback() {
+        return (ThingHandlerCallback) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ThingHandlerCallback.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "statusUpdated":
+                            Thing thing = (Thing) args[0];
+                            ThingStatusInfo statusInfo = (ThingStatusInfo) args[1];
+                            ThingStatus previous = thing.getStatus();
+                            thing.setStatusInfo(statusInfo);
+                            List<RainMachineZoneHandler> zones = zoneHandlers.get(thing.getUID());
+                            if (zones != null && previous != statusInfo.getStatus()) {
+                                zones.forEach(zoneHandler -> zoneHandler.bridgeStatusChanged(statusInfo));
+                            }
+                            return null;
+                        case "stateUpdated":
+                            stateUpdates.incrementAndGet();
+                            return null;
+                        case "isChannelLinked":
+                            return true;
+                        case "getBridge":
+                            return bridges.get(args[0]);
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "RainMachineLoadHarness callback";
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private HttpClientFactory createHttpClientFactory() {
+        return (HttpClientFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpClientFactory.class }, (proxy, method, args) -> {
+                    if ("createHttpClient".equals(method.getName())) {
+                        return args.length > 1 && args[1] instanceof SslContextFactory
+                                ? new HttpClient((SslContextFactory) args[1])
+                                : new HttpClient();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private int getOnline() {
+        int online = 0;
+        for (Bridge bridge : bridges.values()) {
+            if (bridge.getStatus() == ThingStatus.ONLINE) {
+                online++;
+            }
+        }
+        return online;
+    }
+
+    private void printReport(long[] latencies, String label) {
+        Arrays.sort(latencies);
+        System.out.printf("%s: online=%d/%d, polls=%d, poll latency p50=%dms p90=%dms p99=%dms max=%dms, "
+                + "requests=%d, injected errors=%d, channel updates=%d%n", label, getOnline(), bridgeCount,
+                latencies.length, percentile(latencies, 0.5), percentile(latencies, 0.9),
+                percentile(latencies, 0.99), latencies.length == 0 ? 0 : latencies[latencies.length - 1],
+                controller.getRequests(), controller.getErrors(), stateUpdates.get());
+        printResources(label);
+    }
+
+    private void printResources(String label) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.printf("%s: threads=%d (peak %d), heap used=%dMB committed=%dMB%n", label,
+                threads.getThreadCount(), threads.getPeakThreadCount(), heap.getUsed() >> 20,
+                heap.getCommitted() >> 20);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    /**
+     * The binding's poll scheduler, timing each poll
+     */
+    private static class TimedPollScheduler extends RainMachinePollScheduler {
+        final LatencyRecorder interval = new LatencyRecorder();
+        final LatencyRecorder total = new LatencyRecorder();
+
+        TimedPollScheduler() {
+            super(ThreadPoolManager.getScheduledPool(RainMachineBindingConstants.THREAD_POOL_NAME),
+                    RainMachineBindingConstants.MAX_CONCURRENT_POLLS);
+        }
+
+        @Override
+        public synchronized void register(ThingUID uid, int period, PollTask task) {
+            super.register(uid, period, () -> {
+                long start = System.nanoTime();
+                try {
+                    return task.poll();
+                } finally {
+                    long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    interval.add(latency);
+                    total.add(latency);
+                }
+            });
+        }
+    }
+
+    private static class LatencyRecorder {
+        private long[] latencies = new long[1024];
+        private int count = 0;
+
+        synchronized void add(long latency) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+        }
+
+        /**
+         * @return the latencies recorded since the last call
+         */
+        synchronized long[] drain() {
+            long[] drained = Arrays.copyOf(latencies, count);
+            count = 0;
+            return drained;
+        }
+    }
+
+    private static class MemoryAddressCache implements RainMachineAddressCache {
+        private final Map<String, String> addresses = new ConcurrentHashMap<>();
+
+        @Override
+        public String getLastKnownHostAddress(String id) {
+            return addresses.getOrDefault(id, "");
+        }
+
+        @Override
+        public void updateHostAddress(String id, String hostAddress) {
+            addresses.put(id, hostAddress);
+        }
+    }
+}
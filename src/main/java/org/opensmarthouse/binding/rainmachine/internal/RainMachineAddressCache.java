@@ -29,4 +29,12 @@ public interface RainMachineAddressCache {
      * @return the known host address or an empty string if not known
      */
     String getLastKnownHostAddress(String id);
+
+    /**
+     * Records the host name/ip address at which the device with the given ID was seen.
+     *
+     * @param id the ID of the RainMachine
+     * @param hostAddress the host address at which the RainMachine was seen
+     */
+    void updateHostAddress(String id, String hostAddress);
 }
@@ -36,8 +36,9 @@ public class RainMachineBindingConstants {
     // List of all Thing Type UIDs
     public static final ThingTypeUID RAINMACHINE_BRIDGE = new ThingTypeUID(BINDING_ID, RAINMACHINE + "_bridge");
     public static final ThingTypeUID RAINMACHINE_ZONE = new ThingTypeUID(BINDING_ID, RAINMACHINE + "_zone");
+    public static final ThingTypeUID RAINMACHINE_PROGRAM = new ThingTypeUID(BINDING_ID, RAINMACHINE + "_program");
     public static final Set<ThingTypeUID> SUPPORTED_THING_TYPES_UIDS = new HashSet<ThingTypeUID>(
-            Arrays.asList(new ThingTypeUID[] { RAINMACHINE_BRIDGE, RAINMACHINE_ZONE }));
+            Arrays.asList(new ThingTypeUID[] { RAINMACHINE_BRIDGE, RAINMACHINE_ZONE, RAINMACHINE_PROGRAM }));
 
     // List of internal default values
     public static final int DEFAULT_WAIT_BEFORE_INITIAL_REFRESH = 30;
@@ -48,9 +49,31 @@ public class RainMachineBindingConstants {
     public static final boolean DISCOVERY_DEFAULT_AUTO_DISCOVER = false;
     public static final int DISCOVERY_DEFAULT_TIMEOUT_RATE = 500;
     public static final int DISCOVERY_DEFAULT_IP_TIMEOUT_RATE = 750;
+    public static final String THREAD_POOL_NAME = "rainmachine";
+    public static final int MAX_CONCURRENT_POLLS = 4;
 
     // List of all Channel ids
-    public static final String CHANNEL_ID_ZONE_STATE = "zone_state";
+    public static final String CHANNEL_ID_ZONE_STATE = "status";
+    public static final String CHANNEL_ID_ZONE_ACTIVE = "active";
+    public static final String CHANNEL_ID_ZONE_REMAINING = "remaining";
+    public static final String CHANNEL_ID_ZONE_LAST_RUN = "last_run";
+    public static final String CHANNEL_ID_ZONE_LAST_DURATION = "last_duration";
+    public static final String CHANNEL_ID_ZONE_RUN = "run";
     public static final String CHANNEL_ID_LASTRAIN = "lastrain";
+    public static final String CHANNEL_ID_PROGRAM_STATUS = "status";
+    public static final String CHANNEL_ID_PROGRAM_ACTIVE = "active";
+    public static final String CHANNEL_ID_PROGRAM_NEXT_RUN = "next_run";
+    public static final String CHANNEL_ID_MIXER_TEMPERATURE = "mixer_temperature";
+    public static final String CHANNEL_ID_MIXER_MIN_TEMPERATURE = "mixer_min_temperature";
+    public static final String CHANNEL_ID_MIXER_MAX_TEMPERATURE = "mixer_max_temperature";
+    public static final String CHANNEL_ID_MIXER_HUMIDITY = "mixer_humidity";
+    public static final String CHANNEL_ID_MIXER_WIND = "mixer_wind";
+    public static final String CHANNEL_ID_MIXER_QPF = "mixer_qpf";
+    public static final String CHANNEL_ID_MIXER_QPF_TOMORROW = "mixer_qpf_tomorrow";
+    public static final String CHANNEL_ID_MIXER_RAIN_YESTERDAY = "mixer_rain_yesterday";
+    public static final String CHANNEL_ID_MIXER_ET0 = "mixer_et0";
+    public static final String CHANNEL_ID_API_LATENCY = "api_latency";
+    public static final String CHANNEL_ID_API_ERRORS = "api_errors";
+    public static final String CHANNEL_ID_API_THROTTLED = "api_throttled";
 
 }
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.OpenHAB;
+import org.openhab.core.common.ThreadPoolManager;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineFileAddressCache} keeps the last known host address of each RainMachine in a file under the
+ * userdata folder, so that the addresses survive a restart. Each line of the file holds the ID, the host address
+ * and the time the address was last seen, separated by tabs. Addresses that have not been seen for
+ * {@link #TIME_TO_LIVE} are evicted.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+@Component(service = RainMachineAddressCache.class)
+public class RainMachineFileAddressCache implements RainMachineAddressCache {
+
+    private static final long TIME_TO_LIVE = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * An address that is seen again is only written to the file if the last write is older than this
+     */
+    private static final long LAST_SEEN_RESOLUTION = TimeUnit.HOURS.toMillis(1);
+
+    private static final long SAVE_DELAY = 5;
+
+    private static final String FOLDER_NAME = "rainmachine";
+    private static final String FILE_NAME = "addresses";
+    private static final char SEPARATOR = '\t';
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineFileAddressCache.class);
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = ThreadPoolManager
+            .getScheduledPool(RainMachineBindingConstants.THREAD_POOL_NAME);
+    private final Path file;
+
+    private @Nullable ScheduledFuture<?> saveJob;
+
+    private static class Entry {
+        final String hostAddress;
+        final long lastSeen;
+
+        Entry(String hostAddress, long lastSeen) {
+            this.hostAddress = hostAddress;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    @Activate
+    public RainMachineFileAddressCache() {
+        this.file = Paths.get(OpenHAB.getUserDataFolder(), FOLDER_NAME, FILE_NAME);
+        load();
+    }
+
+    @Deactivate
+    public void deactivate() {
+        ScheduledFuture<?> saveJob;
+        synchronized (this) {
+            saveJob = this.saveJob;
+            this.saveJob = null;
+        }
+        // Write any pending change straight away rather than losing it
+        if (saveJob != null && saveJob.cancel(false)) {
+            save();
+        }
+    }
+
+    @Override
+    public String getLastKnownHostAddress(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return "";
+        }
+        if (System.currentTimeMillis() - entry.lastSeen > TIME_TO_LIVE) {
+            entries.remove(id, entry);
+            scheduleSave();
+            return "";
+        }
+        return entry.hostAddress;
+    }
+
+    @Override
+    public void updateHostAddress(String id, String hostAddress) {
+        if (id.isEmpty() || hostAddress.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Entry previous = entries.get(id);
+        if (previous != null && previous.hostAddress.equals(hostAddress)
+                && now - previous.lastSeen < LAST_SEEN_RESOLUTION) {
+            return;
+        }
+
+        entries.put(id, new Entry(hostAddress, now));
+        if (previous == null || !previous.hostAddress.equals(hostAddress)) {
+            logger.debug("RainMachine {} address is now {}", id, hostAddress);
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Coalesces changes made in quick succession, for example during discovery, into a single write
+     */
+    private synchronized void scheduleSave() {
+        ScheduledFuture<?> saveJob = this.saveJob;
+        if (saveJob == null || saveJob.isDone()) {
+            this.saveJob = scheduler.schedule(this::save, SAVE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    private void load() {
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int hostStart = line.indexOf(SEPARATOR);
+                int lastSeenStart = line.lastIndexOf(SEPARATOR);
+                if (hostStart <= 0 || lastSeenStart <= hostStart) {
+                    continue;
+                }
+                try {
+                    long lastSeen = Long.parseLong(line.substring(lastSeenStart + 1));
+                    if (now - lastSeen <= TIME_TO_LIVE) {
+                        entries.put(line.substring(0, hostStart),
+                                new Entry(line.substring(hostStart + 1, lastSeenStart), lastSeen));
+                    }
+                } catch (NumberFormatException e) {
+                    logger.debug("RainMachine address cache ignoring invalid line '{}'", line);
+                }
+            }
+            logger.debug("RainMachine address cache loaded {} addresses", entries.size());
+        } catch (NoSuchFileException e) {
+            logger.debug("RainMachine address cache file {} does not exist yet", file);
+        } catch (IOException e) {
+            logger.warn("RainMachine address cache could not be read from {}: {}", file, e.getMessage());
+        }
+    }
+
+    private synchronized void save() {
+        long now = System.currentTimeMillis();
+        Path temporaryFile = file.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    if (now - entry.getValue().lastSeen > TIME_TO_LIVE) {
+                        entries.remove(entry.getKey(), entry.getValue());
+                        continue;
+                    }
+                    writer.append(entry.getKey()).append(SEPARATOR).append(entry.getValue().hostAddress)
+                            .append(SEPARATOR).append(Long.toString(entry.getValue().lastSeen));
+                    writer.newLine();
+                }
+            }
+            // Replace the file in one step so that a crash never leaves a partly written file
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warn("RainMachine address cache could not be written to {}: {}", file, e.getMessage());
+        }
+    }
+}
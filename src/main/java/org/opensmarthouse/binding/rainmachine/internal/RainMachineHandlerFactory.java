@@ -14,6 +14,8 @@ package org.opensmarthouse.binding.rainmachine.internal;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.jetty.client.HttpClient;
+import org.openhab.core.common.ThreadPoolManager;
 import org.openhab.core.io.net.http.HttpClientFactory;
 import org.openhab.core.thing.Bridge;
 import org.openhab.core.thing.Thing;
@@ -21,10 +23,15 @@ import org.openhab.core.thing.ThingTypeUID;
 import org.openhab.core.thing.binding.BaseThingHandlerFactory;
 import org.openhab.core.thing.binding.ThingHandler;
 import org.openhab.core.thing.binding.ThingHandlerFactory;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineSharedHttpClientPool;
 import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachineBridgeHandler;
+import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachinePollScheduler;
+import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachineProgramHandler;
+import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachineStartupMonitor;
 import org.opensmarthouse.binding.rainmachine.internal.handler.RainMachineZoneHandler;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 
 /**
@@ -33,16 +40,40 @@ import org.osgi.service.component.annotations.Reference;
  *
  * @author Chris Jackson - Initial contribution
  */
-@Component(service = ThingHandlerFactory.class, configurationPid = "binding.rainmachine")
+@Component(service = { ThingHandlerFactory.class,
+        RainMachineHttpClientPool.class }, configurationPid = "binding.rainmachine")
 @NonNullByDefault
-public class RainMachineHandlerFactory extends BaseThingHandlerFactory {
+public class RainMachineHandlerFactory extends BaseThingHandlerFactory implements RainMachineHttpClientPool {
 
     private final RainMachineAddressCache hostAddressCache;
+    private final RainMachineSharedHttpClientPool clientPool;
+    private final RainMachinePollScheduler pollScheduler = new RainMachinePollScheduler(
+            ThreadPoolManager.getScheduledPool(RainMachineBindingConstants.THREAD_POOL_NAME),
+            RainMachineBindingConstants.MAX_CONCURRENT_POLLS);
+    private final RainMachineStartupMonitor startupMonitor = new RainMachineStartupMonitor();
 
     @Activate
     public RainMachineHandlerFactory(@Reference final HttpClientFactory httpClientFactory,
             @Reference final RainMachineAddressCache hostAddressCache) {
         this.hostAddressCache = hostAddressCache;
+        this.clientPool = new RainMachineSharedHttpClientPool(httpClientFactory,
+                ThreadPoolManager.getScheduledPool(RainMachineBindingConstants.THREAD_POOL_NAME));
+    }
+
+    @Deactivate
+    public void deactivate() {
+        pollScheduler.dispose();
+        clientPool.dispose();
+    }
+
+    @Override
+    public HttpClient acquire() throws RainMachineException {
+        return clientPool.acquire();
+    }
+
+    @Override
+    public void release(HttpClient httpClient) {
+        clientPool.release(httpClient);
     }
 
     @Override
@@ -55,13 +86,18 @@ public class RainMachineHandlerFactory extends BaseThingHandlerFactory {
         ThingTypeUID thingTypeUID = thing.getThingTypeUID();
 
         if (thingTypeUID.equals(RainMachineBindingConstants.RAINMACHINE_BRIDGE)) {
-            return new RainMachineBridgeHandler((Bridge) thing, hostAddressCache);
+            return new RainMachineBridgeHandler((Bridge) thing, hostAddressCache, clientPool, pollScheduler,
+                    startupMonitor);
         }
 
         if (thingTypeUID.equals(RainMachineBindingConstants.RAINMACHINE_ZONE)) {
             return new RainMachineZoneHandler(thing);
         }
 
+        if (thingTypeUID.equals(RainMachineBindingConstants.RAINMACHINE_PROGRAM)) {
+            return new RainMachineProgramHandler(thing);
+        }
+
         return null;
     }
 }
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jetty.client.HttpClient;
+
+/**
+ * Service that shares HTTP clients between all RainMachine communicators.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public interface RainMachineHttpClientPool {
+    /**
+     * Returns a started HTTP client. Each call must be balanced with a call to {@link #release(HttpClient)}.
+     *
+     * @return the shared {@link HttpClient}
+     * @throws RainMachineException if the client could not be started
+     */
+    HttpClient acquire() throws RainMachineException;
+
+    /**
+     * Releases a client previously returned by {@link #acquire()}. The client is stopped once it is no longer used.
+     *
+     * @param httpClient the client to release
+     */
+    void release(HttpClient httpClient);
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link RainMachineInvalidResponseException} is thrown when the controller answered, but the response could not
+ * be used because it could not be parsed or was too large. Sending the same request again will fail the same way.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineInvalidResponseException extends RainMachineException {
+    private static final long serialVersionUID = -4186237745318470317L;
+
+    public RainMachineInvalidResponseException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineCircuitBreaker} stops requests being sent to a controller that is not answering. After a
+ * number of consecutive failures the breaker opens, and requests fail immediately rather than waiting for their
+ * timeout. Once the backoff period has passed, a single request is let through to probe the controller. If it
+ * succeeds the breaker closes, and if it fails the backoff period is doubled, with jitter so that many controllers
+ * that failed together are not probed together.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineCircuitBreaker {
+
+    public enum State {
+        /**
+         * Requests are sent normally
+         */
+        CLOSED,
+        /**
+         * Requests fail immediately until the backoff period has passed
+         */
+        OPEN,
+        /**
+         * A single probe request is in progress
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Receives breaker state changes
+     */
+    @FunctionalInterface
+    public interface StateListener {
+        void stateChanged(State state);
+    }
+
+    private static final double JITTER = 0.2;
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineCircuitBreaker.class);
+
+    private final String name;
+    private final int failureThreshold;
+    private final long initialBackoff;
+    private final long maximumBackoff;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long backoff;
+    private long nextAttempt = 0;
+
+    private @Nullable StateListener listener;
+
+    /**
+     * Creates a circuit breaker
+     *
+     * @param name the name used in log messages
+     * @param failureThreshold the number of consecutive failures after which the breaker opens
+     * @param initialBackoff the first backoff period in milliseconds
+     * @param maximumBackoff the longest backoff period in milliseconds
+     */
+    public RainMachineCircuitBreaker(String name, int failureThreshold, long initialBackoff, long maximumBackoff) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.initialBackoff = initialBackoff;
+        this.maximumBackoff = maximumBackoff;
+        this.backoff = initialBackoff;
+    }
+
+    public synchronized void setStateListener(@Nullable StateListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Checks whether a request may be sent. When the backoff period has passed, the first caller is allowed through
+     * as a probe and the breaker moves to {@link State#HALF_OPEN}.
+     *
+     * @return true if the request may be sent
+     */
+    public boolean allowRequest() {
+        synchronized (this) {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    return false;
+                case OPEN:
+                default:
+                    if (System.currentTimeMillis() < nextAttempt) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+            }
+        }
+
+        logger.debug("RainMachine {} probing controller", name);
+        notifyListener(State.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * Records a request that reached the controller
+     */
+    public void recordSuccess() {
+        boolean closed;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            closed = state != State.CLOSED;
+            state = State.CLOSED;
+            backoff = initialBackoff;
+        }
+
+        if (closed) {
+            logger.info("RainMachine {} is answering again", name);
+            notifyListener(State.CLOSED);
+        }
+    }
+
+    /**
+     * Records a request that did not reach the controller
+     */
+    public void recordFailure() {
+        long delay;
+        boolean reopened;
+        synchronized (this) {
+            consecutiveFailures++;
+
+            reopened = state == State.HALF_OPEN;
+            if (reopened) {
+                backoff = Math.min(backoff * 2, maximumBackoff);
+            } else if (state == State.OPEN || consecutiveFailures < failureThreshold) {
+                return;
+            }
+
+            delay = (long) (backoff * (1 + JITTER * (ThreadLocalRandom.current().nextDouble() * 2 - 1)));
+            nextAttempt = System.currentTimeMillis() + delay;
+            state = State.OPEN;
+        }
+
+        // Only the first failure is logged as a warning, so a controller that stays offline does not flood the log
+        if (!reopened) {
+            logger.warn("RainMachine {} is not answering, retrying in {}s", name,
+                    TimeUnit.MILLISECONDS.toSeconds(delay));
+        } else {
+            logger.debug("RainMachine {} is still not answering, retrying in {}s", name,
+                    TimeUnit.MILLISECONDS.toSeconds(delay));
+        }
+        notifyListener(State.OPEN);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of milliseconds until a probe will be let through, or 0 if requests are allowed now
+     */
+    public synchronized long getRetryDelay() {
+        return state == State.OPEN ? Math.max(0, nextAttempt - System.currentTimeMillis()) : 0;
+    }
+
+    private void notifyListener(State state) {
+        StateListener listener;
+        synchronized (this) {
+            listener = this.listener;
+        }
+        if (listener != null) {
+            listener.stateChanged(state);
+        }
+    }
+}
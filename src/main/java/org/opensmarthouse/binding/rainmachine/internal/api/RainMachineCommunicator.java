@@ -12,34 +12,46 @@
  */
 package org.opensmarthouse.binding.rainmachine.internal.api;
 
-import static org.eclipse.jetty.http.HttpMethod.GET;
+import static org.eclipse.jetty.http.HttpMethod.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URI;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpHeader;
-import org.eclipse.jetty.http.HttpStatus;
-import org.eclipse.jetty.util.ssl.SslContextFactory;
-import org.eclipse.jetty.util.ssl.SslContextFactory.Client;
+import org.openhab.core.common.ThreadPoolManager;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineBindingConstants;
 import org.opensmarthouse.binding.rainmachine.internal.RainMachineException;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineHttpClientPool;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineInvalidResponseException;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineRequestScheduler.Lane;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 
 /**
  * The {@link RainMachineCommunicator} handles communication with RainMachine
@@ -52,167 +64,599 @@ import com.google.gson.Gson;
 public class RainMachineCommunicator {
 
     private static final String API_REFERENCE = "/api/4/";
+    private static final String DEFAULT_SCHEME = "https";
 
     private static final String CMD_LOGIN = "auth/login";
     private static final String CMD_APIVER = "apiVer";
     private static final String CMD_APIZONE = "zone";
     private static final String CMD_PROVISION = "provision";
     private static final String CMD_DIAGNOSTICS = "diag";
+    private static final String CMD_WATERINGLOG = "watering/log/details";
+    private static final String CMD_MIXER = "mixer";
+    private static final String CMD_PROGRAM = "program";
+    private static final String CMD_WATERINGPROGRAM = "watering/program";
+    private static final String CMD_WATERINGQUEUE = "watering/queue";
+    private static final String CMD_ZONESTART = "zone/start";
+    private static final String CMD_ZONESTOP = "zone/stop";
 
     private static final String REF_ACCESSTOKEN = "access_token";
 
     private static final int HTTP_TIMEOUT = 3;
 
+    /**
+     * Responses larger than this are aborted. The whole response is buffered before it is parsed, so this bounds the
+     * memory used by each request. A zone response for 16 zones is around 4kB.
+     */
+    private static final int MAX_RESPONSE_SIZE = 64 * 1024;
+
+    /**
+     * The limit for the watering log, program list and mixer responses, which grow with the days and programs read
+     */
+    private static final int MAX_LIST_RESPONSE_SIZE = 1024 * 1024;
+
+    // One fewer than this is used for polling, so there is always a connection free for a command
+    private static final int MAX_REQUESTS_IN_FLIGHT = 3;
+
+    private static final int BREAKER_FAILURE_THRESHOLD = 3;
+    private static final long BREAKER_INITIAL_BACKOFF = TimeUnit.SECONDS.toMillis(15);
+    private static final long BREAKER_MAXIMUM_BACKOFF = TimeUnit.MINUTES.toMillis(15);
+
     private final Logger logger = LoggerFactory.getLogger(RainMachineCommunicator.class);
+    private final RainMachineHttpClientPool clientPool;
     private final HttpClient httpClient;
 
     private final String address;
+    private final String baseUrl;
     private final String password;
 
     private final Gson gson = new Gson();
-    private ExecutorService executor = Executors.newCachedThreadPool();
-
-    private String accessToken = "";
+    private final RainMachineZoneParser zoneParser = new RainMachineZoneParser();
+    private final RainMachineWateringQueueParser wateringQueueParser = new RainMachineWateringQueueParser();
+    private final RainMachineWateringLogParser wateringLogParser = new RainMachineWateringLogParser();
+    private final RainMachineMixerParser mixerParser = new RainMachineMixerParser();
+    private final RainMachineProgramParser programParser = new RainMachineProgramParser();
+    private final RainMachineTokenManager tokenManager;
+    private final RainMachineCircuitBreaker circuitBreaker;
+    private final RainMachineMetrics metrics = new RainMachineMetrics();
+    private final RainMachineRequestScheduler requestScheduler;
+    private final Map<String, CompletableFuture<?>> inFlightRequests = new ConcurrentHashMap<>();
+
+    private boolean disposed = false;
+
+    public RainMachineCommunicator(RainMachineHttpClientPool clientPool, String address) throws RainMachineException {
+        this(clientPool, address, "");
+    }
 
-    public RainMachineCommunicator(String address) throws RainMachineException {
-        this(address, "");
+    public RainMachineCommunicator(RainMachineHttpClientPool clientPool, String address, String password)
+            throws RainMachineException {
+        this(clientPool, address, password, null);
     }
 
-    public RainMachineCommunicator(String address, String password) throws RainMachineException {
-        String localAddress;
-        if (address.endsWith("/")) {
-            localAddress = address.substring(0, address.length() - 1);
-        } else {
-            localAddress = address;
+    /**
+     * @param clientPool the pool that provides the HTTP client
+     * @param address the controller address
+     * @param password the controller password, or an empty string to only use requests that need no login
+     * @param rateLimiter the rate limiter for requests to the controller, or null for no limit
+     * @throws RainMachineException if the address is not valid, or the HTTP client could not be started
+     */
+    public RainMachineCommunicator(RainMachineHttpClientPool clientPool, String address, String password,
+            @Nullable RainMachineRateLimiter rateLimiter) throws RainMachineException {
+        // The address may be a bare host, host:port, or a URL such as https://192.168.1.10:8080/
+        String localAddress = address.trim();
+        String scheme = DEFAULT_SCHEME;
+        int schemeEnd = localAddress.indexOf("://");
+        if (schemeEnd != -1) {
+            scheme = localAddress.substring(0, schemeEnd).toLowerCase();
+            localAddress = localAddress.substring(schemeEnd + 3);
         }
-        if (localAddress.contains("//")) {
-            localAddress = localAddress.substring(localAddress.indexOf("//") + 2, address.length() - 1);
+        int pathStart = localAddress.indexOf('/');
+        if (pathStart != -1) {
+            localAddress = localAddress.substring(0, pathStart);
+        }
+        if (!"https".equals(scheme) && !"http".equals(scheme)) {
+            throw new RainMachineException("RainMachine address has unsupported scheme: " + address);
+        }
+        if (localAddress.isEmpty()) {
+            throw new RainMachineException("RainMachine address has no host: " + address);
         }
         this.address = localAddress;
-        this.password = "";// password;
-
-        Client sslContext = new SslContextFactory.Client();
-        this.httpClient = new HttpClient(sslContext);
-        this.httpClient.getSslContextFactory().setTrustAll(true);
-        this.httpClient.getSslContextFactory().setValidateCerts(false);
-        this.httpClient.getSslContextFactory().setValidatePeerCerts(false);
-        this.httpClient.getSslContextFactory().setEndpointIdentificationAlgorithm(null);
-        this.httpClient.setExecutor(executor);
+        this.baseUrl = scheme + "://" + localAddress + API_REFERENCE;
+        this.password = password;
 
-        try {
-            // httpClient.setFollowRedirects(false);
-            this.httpClient.start();
-        } catch (Exception e) {
-            throw new RainMachineException("Cannot start HttpClient!");
-        }
+        this.clientPool = clientPool;
+        this.httpClient = clientPool.acquire();
+        this.tokenManager = new RainMachineTokenManager(this::sendLogin);
+        this.requestScheduler = new RainMachineRequestScheduler(MAX_REQUESTS_IN_FLIGHT, rateLimiter,
+                ThreadPoolManager.getScheduledPool(RainMachineBindingConstants.THREAD_POOL_NAME), metrics);
+        this.circuitBreaker = new RainMachineCircuitBreaker(this.address, BREAKER_FAILURE_THRESHOLD,
+                BREAKER_INITIAL_BACKOFF, BREAKER_MAXIMUM_BACKOFF);
 
         logger.debug("RainMachine communicator created for {}", this.address);
     }
 
-    @Override
-    public void finalize() {
-        try {
-            httpClient.stop();
-        } catch (Exception e) {
-            // swallow this
+    /**
+     * Releases the shared {@link HttpClient}. The communicator must not be used after it has been disposed.
+     */
+    public synchronized void dispose() {
+        if (disposed) {
+            return;
         }
+        disposed = true;
+        tokenManager.dispose();
+        requestScheduler.dispose();
+        clientPool.release(httpClient);
+        logger.debug("RainMachine communicator disposed for {}", address);
     }
 
-    private synchronized boolean commandLogin() throws RainMachineException {
-        if (!accessToken.isEmpty()) {
-            return true;
-        }
+    /**
+     * @return the circuit breaker that tracks whether the controller is answering
+     */
+    public RainMachineCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return the request metrics for this controller
+     */
+    public RainMachineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public RainMachineApiVersion getVersions() throws RainMachineException {
+        return await(getVersionsAsync());
+    }
+
+    public RainMachineZonesInformation getZones() throws RainMachineException {
+        return await(getZonesAsync());
+    }
+
+    public RainMachineDeviceInformation getDeviceInfo() throws RainMachineException {
+        return await(getDeviceInfoAsync());
+    }
 
+    public RainMachineDiagnostics getDiagnostics() throws RainMachineException {
+        return await(getDiagnosticsAsync());
+    }
+
+    public CompletableFuture<RainMachineApiVersion> getVersionsAsync() {
+        return singleFlight(CMD_APIVER,
+                () -> sendGetAsync(CMD_APIVER, reflectiveParser(RainMachineApiVersion.class), false));
+    }
+
+    public CompletableFuture<RainMachineZonesInformation> getZonesAsync() {
         if (password.isEmpty()) {
-            return false;
+            return CompletableFuture.completedFuture(new RainMachineZonesInformation());
         }
+        return singleFlight(CMD_APIZONE, () -> sendGetAsync(CMD_APIZONE, zoneParser::parse, true));
+    }
 
-        try {
-            Request request = httpClient.POST(URI.create("https://" + address + API_REFERENCE + CMD_LOGIN));
-            logger.debug("RainMachine login request {}", request);
-            request.header(HttpHeader.CONTENT_TYPE, "text/html");
-            String contentString = "{\"pwd\": \"" + password + "\", \"remember\": 1}";
-
-            request.content(new StringContentProvider(contentString, "utf-8"));
-            // request.content(new StringContentProvider("{\"pwd\":\"" + password + "\", remember: 1}", "utf-8"));
-            logger.debug("RainMachine login request content {}", contentString);
-            logger.debug("RainMachine login request content {}", request.getContent().toString());
-            ContentResponse response;
-            response = request.send();
-            logger.debug("RainMachine login response code {}", response.getStatus());
-            if (response.getStatus() != HttpStatus.OK_200) {
-                return false;
-            }
+    public CompletableFuture<RainMachineDeviceInformation> getDeviceInfoAsync() {
+        if (password.isEmpty()) {
+            return CompletableFuture.completedFuture(new RainMachineDeviceInformation());
+        }
+        return singleFlight(CMD_PROVISION,
+                () -> sendGetAsync(CMD_PROVISION, reflectiveParser(RainMachineDeviceInformation.class), true));
+    }
 
-            String responseString = response.getContentAsString();
-            logger.debug("RainMachine login response {}", responseString);
+    public CompletableFuture<RainMachineDiagnostics> getDiagnosticsAsync() {
+        if (password.isEmpty()) {
+            return CompletableFuture.completedFuture(new RainMachineDiagnostics());
+        }
+        return singleFlight(CMD_DIAGNOSTICS,
+                () -> sendGetAsync(CMD_DIAGNOSTICS, reflectiveParser(RainMachineDiagnostics.class), true));
+    }
 
-            TypeReference<HashMap<String, String>> typeRef = new TypeReference<HashMap<String, String>>() {
-            };
-            ObjectMapper mapper = new ObjectMapper();
-            HashMap<String, String> data = mapper.readValue(responseString, typeRef);
-            accessToken = data.get(REF_ACCESSTOKEN);
-            return true;
-        } catch (InterruptedException | TimeoutException | ExecutionException | NullPointerException
-                | JsonProcessingException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-            return false;
+    /**
+     * Reads the watering queue, which holds the runtime state of the zones that are running or queued. This is much
+     * smaller than the full zone list when few zones are watering.
+     *
+     * @return a future that completes with the watering queue
+     */
+    public CompletableFuture<RainMachineWateringQueue> getWateringQueueAsync() {
+        if (password.isEmpty()) {
+            return CompletableFuture.completedFuture(new RainMachineWateringQueue());
         }
+        return singleFlight(CMD_WATERINGQUEUE,
+                () -> sendGetAsync(CMD_WATERINGQUEUE, wateringQueueParser::parse, true));
     }
 
-    public RainMachineApiVersion getVersions() throws RainMachineException {
-        return (RainMachineApiVersion) sendGet(CMD_APIVER, RainMachineApiVersion.class);
+    /**
+     * Reads the full list of programs, including the next run of each program
+     *
+     * @return a future that completes with the programs
+     */
+    public CompletableFuture<RainMachineProgramsInformation> getProgramsAsync() {
+        if (password.isEmpty()) {
+            return CompletableFuture.completedFuture(new RainMachineProgramsInformation());
+        }
+        return singleFlight(CMD_PROGRAM, () -> sendGetAsync(CMD_PROGRAM, programParser::parse, true));
     }
 
-    public RainMachineZonesInformation getZones() throws RainMachineException {
-        if (!commandLogin()) {
-            return new RainMachineZonesInformation();
+    /**
+     * Reads the programs that are currently running or queued. This is much smaller than the full program list.
+     *
+     * @return a future that completes with the running programs
+     */
+    public CompletableFuture<RainMachineProgramsInformation> getRunningProgramsAsync() {
+        if (password.isEmpty()) {
+            return CompletableFuture.completedFuture(new RainMachineProgramsInformation());
         }
-        return (RainMachineZonesInformation) sendGet(CMD_APIZONE, RainMachineZonesInformation.class);
+        return singleFlight(CMD_WATERINGPROGRAM,
+                () -> sendGetAsync(CMD_WATERINGPROGRAM, programParser::parse, true));
     }
 
-    public RainMachineDeviceInformation getDeviceInfo() throws RainMachineException {
-        if (!commandLogin()) {
-            return new RainMachineDeviceInformation();
+    /**
+     * Reads the watering log
+     *
+     * @param start the first day to read
+     * @param days the number of days to read
+     * @return a future that completes with the watering cycles in the log
+     */
+    public CompletableFuture<RainMachineWateringLog> getWateringLogAsync(LocalDate start, int days) {
+        if (password.isEmpty()) {
+            return CompletableFuture.completedFuture(new RainMachineWateringLog());
         }
-        return (RainMachineDeviceInformation) sendGet(CMD_PROVISION, RainMachineDeviceInformation.class);
+        String path = CMD_WATERINGLOG + "/" + start + "/" + days;
+        return singleFlight(path, () -> sendGetAsync(CMD_WATERINGLOG, path, wateringLogParser::parse, true));
     }
 
-    public RainMachineDiagnostics getDiagnostics() throws RainMachineException {
-        if (!commandLogin()) {
-            return new RainMachineDiagnostics();
+    /**
+     * Reads the weather data computed by the mixer
+     *
+     * @param start the first day to read
+     * @param days the number of days to read
+     * @return a future that completes with the mixer data for each day
+     */
+    public CompletableFuture<RainMachineMixerData> getMixerAsync(LocalDate start, int days) {
+        if (password.isEmpty()) {
+            return CompletableFuture.completedFuture(new RainMachineMixerData());
         }
-        return (RainMachineDiagnostics) sendGet(CMD_DIAGNOSTICS, RainMachineDiagnostics.class);
+        String path = CMD_MIXER + "/" + start + "/" + days;
+        return singleFlight(path, () -> sendGetAsync(CMD_MIXER, path, mixerParser::parse, true));
     }
 
-    private synchronized RainMachineResponse sendGet(String command, Class<? extends RainMachineResponse> typeRef)
-            throws RainMachineException {
-        String url = "https://" + address + API_REFERENCE + command;
-        if (!accessToken.isEmpty()) {
-            url.concat("?access_token=" + accessToken);
+    /**
+     * Starts watering a zone. The controller queues the zone if another zone is already watering.
+     *
+     * @param zone the zone ID
+     * @param time the watering time in seconds
+     * @return a future that completes when the controller has accepted the command
+     */
+    public CompletableFuture<RainMachineCommandResponse> startZoneAsync(int zone, int time) {
+        JsonObject body = new JsonObject();
+        body.addProperty("time", time);
+        return sendPostAsync(CMD_ZONESTART, CMD_APIZONE + "/" + zone + "/start", body);
+    }
+
+    /**
+     * Stops watering a zone, or removes it from the watering queue
+     *
+     * @param zone the zone ID
+     * @return a future that completes when the controller has accepted the command
+     */
+    public CompletableFuture<RainMachineCommandResponse> stopZoneAsync(int zone) {
+        return sendPostAsync(CMD_ZONESTOP, CMD_APIZONE + "/" + zone + "/stop", new JsonObject());
+    }
+
+    /**
+     * Ensures that only one request for an endpoint is in progress at a time. Callers that ask for an endpoint while a
+     * request for it is in progress share the result of that request.
+     *
+     * @param command the endpoint
+     * @param request the function that sends the request
+     * @return a future that completes with the response
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> singleFlight(String command, Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<?> inFlight = inFlightRequests.putIfAbsent(command, future);
+        if (inFlight != null) {
+            logger.trace("RainMachine request {} joined request in progress", command);
+            return ((CompletableFuture<T>) inFlight).copy();
         }
-        logger.debug("RainMachine request: {}", url);
-        ContentResponse response;
 
+        CompletableFuture<T> response;
         try {
-            response = httpClient.newRequest(url).method(GET).timeout(HTTP_TIMEOUT, TimeUnit.SECONDS).send();
-            if (response.getStatus() != HttpURLConnection.HTTP_OK) {
-                logger.warn("RainMachine return status other than HTTP_OK : {}", response.getStatus());
-                throw new RainMachineException("RainMachine return status other than HTTP_OK: " + response.getStatus());
+            response = request.get();
+        } catch (RuntimeException e) {
+            // The request was never sent, so fail the callers that joined it and let the next caller try again
+            inFlightRequests.remove(command, future);
+            future.completeExceptionally(e);
+            return future.copy();
+        }
+
+        response.whenComplete((result, exception) -> {
+            // Remove before completing so that callers after completion start a new request
+            inFlightRequests.remove(command, future);
+            if (exception != null) {
+                future.completeExceptionally(exception);
+            } else {
+                future.complete(result);
             }
-        } catch (TimeoutException | ExecutionException | NullPointerException e) {
-            logger.warn("Could not connect to RainMachine with exception: ", e);
-            throw new RainMachineException("Could not connect to RainMachine with exception: " + e.getMessage());
+        });
+        return future.copy();
+    }
+
+    /**
+     * Waits for an asynchronous request to complete, converting any failure to a {@link RainMachineException}
+     *
+     * @param future the request future
+     * @return the response
+     * @throws RainMachineException if the request failed or the wait was interrupted
+     */
+    private <T> T await(CompletableFuture<T> future) throws RainMachineException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RainMachineException) {
+                throw (RainMachineException) cause;
+            }
+            throw new RainMachineException("RainMachine request failed with exception: " + cause);
         } catch (InterruptedException e) {
             logger.warn("Connect to RainMachine interrupted: ", e);
             Thread.currentThread().interrupt();
             throw new RainMachineException("Connect to RainMachine interrupted: " + e.getMessage());
         }
+    }
+
+    /**
+     * Returns a parser that maps the whole response onto the given class
+     */
+    private <T extends RainMachineResponse> ResponseParser<T> reflectiveParser(Class<T> typeRef) {
+        return inputStream -> {
+            try {
+                T response = gson.fromJson(new InputStreamReader(inputStream, StandardCharsets.UTF_8), typeRef);
+                if (response == null) {
+                    throw new IOException("RainMachine returned no data");
+                }
+                return response;
+            } catch (JsonParseException e) {
+                throw new IOException("Could not parse RainMachine response: " + e.getMessage());
+            }
+        };
+    }
+
+    private CompletableFuture<RainMachineLoginResponse> sendLogin() {
+        JsonObject login = new JsonObject();
+        login.addProperty("pwd", password);
+        login.addProperty("remember", 1);
+
+        Request request = httpClient.newRequest(getUrl(CMD_LOGIN)).method(POST)
+                .header(HttpHeader.CONTENT_TYPE, "text/html")
+                .content(new StringContentProvider(gson.toJson(login), "utf-8"));
+        logger.debug("RainMachine login request {}", request);
+        // Commands wait for the login, so it goes in the interactive lane
+        return send(CMD_LOGIN, Lane.INTERACTIVE, request, reflectiveParser(RainMachineLoginResponse.class));
+    }
+
+    /**
+     * Sends a GET request. Authenticated requests are sent with the current access token, and are retried once with
+     * a new token if the controller rejects the token.
+     */
+    private <T extends RainMachineResponse> CompletableFuture<T> sendGetAsync(String command,
+            ResponseParser<T> parser, boolean authenticated) {
+        return sendGetAsync(command, command, parser, authenticated);
+    }
+
+    /**
+     * Sends a GET request for a path that includes parameters. The metrics are recorded against the endpoint.
+     */
+    private <T extends RainMachineResponse> CompletableFuture<T> sendGetAsync(String endpoint, String path,
+            ResponseParser<T> parser, boolean authenticated) {
+        if (!authenticated) {
+            return send(endpoint, Lane.BACKGROUND, httpClient.newRequest(getUrl(path)).method(GET), parser);
+        }
+
+        Function<String, Request> requestBuilder = token -> httpClient.newRequest(getUrl(path)).method(GET)
+                .param(REF_ACCESSTOKEN, token);
+        return tokenManager.getToken().thenCompose(
+                token -> sendAuthenticated(endpoint, Lane.BACKGROUND, requestBuilder, parser, token, true));
+    }
+
+    /**
+     * Sends an authenticated command. Commands are never shared with other callers, are sent in the interactive lane
+     * ahead of any waiting polls, and fail if the controller answers with a status code other than 0.
+     */
+    private CompletableFuture<RainMachineCommandResponse> sendPostAsync(String endpoint, String path, JsonObject body) {
+        if (password.isEmpty()) {
+            return CompletableFuture
+                    .failedFuture(new RainMachineException("RainMachine commands need the controller password"));
+        }
+
+        String content = gson.toJson(body);
+        Function<String, Request> requestBuilder = token -> httpClient.newRequest(getUrl(path)).method(POST)
+                .param(REF_ACCESSTOKEN, token).header(HttpHeader.CONTENT_TYPE, "application/json")
+                .content(new StringContentProvider(content, "utf-8"));
+        ResponseParser<RainMachineCommandResponse> parser = reflectiveParser(RainMachineCommandResponse.class);
+        long startTime = System.nanoTime();
+        return tokenManager.getToken()
+                .thenCompose(token -> sendAuthenticated(endpoint, Lane.INTERACTIVE, requestBuilder, parser, token,
+                        true))
+                .thenCompose(response -> {
+                    if (response.statusCode != 0) {
+                        return CompletableFuture.failedFuture(new RainMachineException(
+                                "RainMachine rejected command " + path + ": " + response.message));
+                    }
+                    return CompletableFuture.completedFuture(response);
+                }).whenComplete((response, exception) -> {
+                    // Includes the login and the time spent waiting for a free connection
+                    metrics.recordCommand(System.nanoTime() - startTime, exception == null);
+                });
+    }
+
+    /**
+     * Sends a request with the access token, and retries once with a new token if the controller rejects the token
+     */
+    private <T extends RainMachineResponse> CompletableFuture<T> sendAuthenticated(String endpoint, Lane lane,
+            Function<String, Request> requestBuilder, ResponseParser<T> parser, String token,
+            boolean retryUnauthorized) {
+        return send(endpoint, lane, requestBuilder.apply(token), parser).handle((response, exception) -> {
+            if (exception == null) {
+                return CompletableFuture.completedFuture(response);
+            }
+
+            Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+            if (retryUnauthorized && cause instanceof RainMachineUnauthorizedException) {
+                logger.debug("RainMachine rejected access token, logging in again");
+                tokenManager.invalidate(token);
+                return tokenManager.getToken()
+                        .thenCompose(newToken -> sendAuthenticated(endpoint, lane, requestBuilder, parser, newToken,
+                                false));
+            }
+            return CompletableFuture.<T> failedFuture(cause);
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Sends a request once the request scheduler has a free slot in the lane
+     */
+    private <T extends RainMachineResponse> CompletableFuture<T> send(String endpoint, Lane lane, Request request,
+            ResponseParser<T> parser) {
+        return requestScheduler.submit(lane, () -> sendNow(endpoint, request, parser));
+    }
+
+    private <T extends RainMachineResponse> CompletableFuture<T> sendNow(String endpoint, Request request,
+            ResponseParser<T> parser) {
+        if (!circuitBreaker.allowRequest()) {
+            logger.debug("RainMachine request skipped, controller not answering: {}", request.getPath());
+            metrics.recordError(endpoint, RainMachineMetrics.ErrorType.REJECTED);
+            return CompletableFuture.failedFuture(
+                    new RainMachineException("RainMachine " + address + " is not answering, request skipped"));
+        }
+
+        logger.debug("RainMachine request: {}", request.getPath());
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long startTime = System.nanoTime();
+        int maxResponseSize = getMaxResponseSize(endpoint);
+        request.timeout(HTTP_TIMEOUT, TimeUnit.SECONDS).send(new BufferingResponseListener(maxResponseSize) {
+            private long bytesReceived = 0;
+
+            @Override
+            public void onHeaders(@Nullable Response response) {
+                // The size is checked here, rather than by the buffering listener, so that the abort can be told
+                // apart from a transport failure
+                if (response != null
+                        && response.getHeaders().getLongField(HttpHeader.CONTENT_LENGTH.asString()) > maxResponseSize) {
+                    response.abort(tooLarge());
+                    return;
+                }
+                super.onHeaders(response);
+            }
+
+            @Override
+            public void onContent(@Nullable Response response, @Nullable ByteBuffer content) {
+                if (content != null) {
+                    bytesReceived += content.remaining();
+                }
+                if (response != null && bytesReceived > maxResponseSize) {
+                    response.abort(tooLarge());
+                    return;
+                }
+                super.onContent(response, content);
+            }
+
+            private RainMachineInvalidResponseException tooLarge() {
+                return new RainMachineInvalidResponseException(
+                        "RainMachine response is larger than " + maxResponseSize + " bytes");
+            }
+
+            @Override
+            public void onComplete(@Nullable Result result) {
+                if (result != null && result.getFailure() instanceof RainMachineInvalidResponseException) {
+                    // The controller is answering, so an oversized response does not count against the breaker
+                    circuitBreaker.recordSuccess();
+                    metrics.recordError(endpoint, RainMachineMetrics.ErrorType.TOO_LARGE);
+                    logger.debug("RainMachine response too large: {}", request.getPath());
+                    future.completeExceptionally(result.getFailure());
+                    return;
+                }
+                if (result == null || result.isFailed()) {
+                    Throwable failure = result == null ? null : result.getFailure();
+                    // The circuit breaker logs the controller going offline, so each failure is only logged at debug
+                    logger.debug("Could not connect to RainMachine with exception: ", failure);
+                    circuitBreaker.recordFailure();
+                    metrics.recordError(endpoint,
+                            failure instanceof TimeoutException ? RainMachineMetrics.ErrorType.TIMEOUT
+                                    : RainMachineMetrics.ErrorType.CONNECTION);
+                    future.completeExceptionally(new RainMachineException(
+                            "Could not connect to RainMachine with exception: "
+                                    + (failure == null ? "" : failure.getMessage())));
+                    return;
+                }
+                metrics.recordResponse(endpoint, System.nanoTime() - startTime, bytesReceived);
+
+                int status = result.getResponse().getStatus();
+                if (status >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    circuitBreaker.recordFailure();
+                } else {
+                    circuitBreaker.recordSuccess();
+                }
+                if (status == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                    metrics.recordError(endpoint, RainMachineMetrics.ErrorType.UNAUTHORIZED);
+                    future.completeExceptionally(new RainMachineUnauthorizedException());
+                    return;
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    logger.warn("RainMachine return status other than HTTP_OK : {}", status);
+                    metrics.recordError(endpoint, RainMachineMetrics.ErrorType.HTTP_STATUS);
+                    future.completeExceptionally(
+                            new RainMachineException("RainMachine return status other than HTTP_OK: " + status));
+                    return;
+                }
+
+                if (logger.isTraceEnabled()) {
+                    logger.trace("RainMachine response: {}", getContentAsString(StandardCharsets.UTF_8));
+                }
+
+                long parseStart = System.nanoTime();
+                try {
+                    T response = parser.parse(getContentAsInputStream());
+                    metrics.recordParse(endpoint, System.nanoTime() - parseStart);
+                    future.complete(response);
+                } catch (IOException e) {
+                    metrics.recordParse(endpoint, System.nanoTime() - parseStart);
+                    metrics.recordError(endpoint, RainMachineMetrics.ErrorType.PARSE);
+                    future.completeExceptionally(new RainMachineInvalidResponseException(
+                            "Could not parse RainMachine response: " + e.getMessage()));
+                }
+            }
+        });
+        return future;
+    }
+
+    private int getMaxResponseSize(String endpoint) {
+        switch (endpoint) {
+            case CMD_WATERINGLOG:
+            case CMD_PROGRAM:
+            case CMD_MIXER:
+                return MAX_LIST_RESPONSE_SIZE;
+            default:
+                return MAX_RESPONSE_SIZE;
+        }
+    }
+
+    private String getUrl(String command) {
+        return baseUrl + command;
+    }
 
-        String responseString = response.getContentAsString();
-        logger.debug("RainMachine response: {}", responseString);
+    /**
+     * Converts the response content of a request into the response object
+     */
+    @FunctionalInterface
+    private interface ResponseParser<T> {
+        T parse(InputStream inputStream) throws IOException;
+    }
+
+    /**
+     * Thrown when the controller rejects the access token
+     */
+    private static class RainMachineUnauthorizedException extends RainMachineException {
+        private static final long serialVersionUID = -1967381946530245377L;
 
-        return gson.fromJson(responseString, typeRef);
+        RainMachineUnauthorizedException() {
+            super("RainMachine rejected the access token");
+        }
     }
 }
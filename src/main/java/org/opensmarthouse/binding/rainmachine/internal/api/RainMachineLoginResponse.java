@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Response to the <code>auth/login</code> request
+ *
+ * @author agent - Initial contribution
+ */
+public class RainMachineLoginResponse extends RainMachineResponse {
+    @SerializedName("access_token")
+    public String accessToken;
+    @SerializedName("expires_in")
+    public long expiresIn;
+    public int statusCode;
+}
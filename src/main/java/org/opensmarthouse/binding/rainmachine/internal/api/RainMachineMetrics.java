@@ -0,0 +1,346 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link RainMachineMetrics} records request metrics for each endpoint of a controller: a latency histogram,
+ * the bytes received, the time spent parsing and the errors by type. Counters are {@link LongAdder}s, so recording
+ * is cheap and lock free, and the metrics can be left on in production.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineMetrics {
+
+    /**
+     * The upper bounds, in milliseconds, of the latency histogram buckets. The last bucket holds everything slower.
+     */
+    public static final long[] LATENCY_BUCKETS = { 25, 50, 100, 250, 500, 1000, 2500, 5000 };
+
+    /**
+     * The target, in milliseconds, for a command to be accepted by the controller
+     */
+    public static final long COMMAND_LATENCY_TARGET = 1000;
+
+    public enum ErrorType {
+        /**
+         * The request timed out
+         */
+        TIMEOUT,
+        /**
+         * The connection could not be made or was lost
+         */
+        CONNECTION,
+        /**
+         * The controller returned a status other than OK
+         */
+        HTTP_STATUS,
+        /**
+         * The controller rejected the access token
+         */
+        UNAUTHORIZED,
+        /**
+         * The response could not be parsed
+         */
+        PARSE,
+        /**
+         * The response was larger than the limit for the endpoint
+         */
+        TOO_LARGE,
+        /**
+         * The request was not sent because the circuit breaker was open
+         */
+        REJECTED
+    }
+
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder commandLatencyNanos = new LongAdder();
+    private final LongAdder commandsOverTarget = new LongAdder();
+    private final LongAdder commandsFailed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * The metrics for a single endpoint
+     */
+    public static class EndpointMetrics {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+        private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder parseNanos = new LongAdder();
+        private final Map<ErrorType, LongAdder> errors = new EnumMap<>(ErrorType.class);
+
+        EndpointMetrics() {
+            for (int bucket = 0; bucket < latencyBuckets.length; bucket++) {
+                latencyBuckets[bucket] = new LongAdder();
+            }
+            for (ErrorType type : ErrorType.values()) {
+                errors.put(type, new LongAdder());
+            }
+        }
+
+        /**
+         * @return the number of requests that received a response
+         */
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        /**
+         * @return the mean latency in milliseconds, or 0 if there have been no requests
+         */
+        public double getMeanLatency() {
+            long requests = this.requests.sum();
+            return requests == 0 ? 0 : latencyNanos.sum() / 1e6 / requests;
+        }
+
+        /**
+         * @return the total latency of all requests in milliseconds
+         */
+        public long getTotalLatency() {
+            return TimeUnit.NANOSECONDS.toMillis(latencyNanos.sum());
+        }
+
+        /**
+         * @return the number of requests in each bucket of {@link RainMachineMetrics#LATENCY_BUCKETS}, with the last
+         *         element holding the requests slower than the last bucket
+         */
+        public long[] getLatencyHistogram() {
+            long[] histogram = new long[latencyBuckets.length];
+            for (int bucket = 0; bucket < latencyBuckets.length; bucket++) {
+                histogram[bucket] = latencyBuckets[bucket].sum();
+            }
+            return histogram;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        /**
+         * @return the mean time spent parsing a response in milliseconds, or 0 if there have been no requests
+         */
+        public double getMeanParseTime() {
+            long requests = this.requests.sum();
+            return requests == 0 ? 0 : parseNanos.sum() / 1e6 / requests;
+        }
+
+        public long getErrors(ErrorType type) {
+            LongAdder errors = this.errors.get(type);
+            return errors == null ? 0 : errors.sum();
+        }
+
+        public long getErrors() {
+            long total = 0;
+            for (LongAdder errors : this.errors.values()) {
+                total += errors.sum();
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("requests=").append(getRequests()).append(", latency=")
+                    .append(String.format("%.1f", getMeanLatency())).append("ms, parse=")
+                    .append(String.format("%.2f", getMeanParseTime())).append("ms, bytes=")
+                    .append(getBytesReceived());
+            appendLatencyHistogram(builder);
+            for (Map.Entry<ErrorType, LongAdder> entry : errors.entrySet()) {
+                long count = entry.getValue().sum();
+                if (count != 0) {
+                    builder.append(", ").append(entry.getKey().name().toLowerCase()).append('=').append(count);
+                }
+            }
+            return builder.toString();
+        }
+
+        /**
+         * Appends the non-empty latency buckets, for example {@code , histogram=[<=25ms:12, <=50ms:3, >5000ms:1]}
+         */
+        private void appendLatencyHistogram(StringBuilder builder) {
+            long[] histogram = getLatencyHistogram();
+            boolean first = true;
+            for (int bucket = 0; bucket < histogram.length; bucket++) {
+                if (histogram[bucket] == 0) {
+                    continue;
+                }
+                builder.append(first ? ", histogram=[" : ", ");
+                if (bucket < LATENCY_BUCKETS.length) {
+                    builder.append("<=").append(LATENCY_BUCKETS[bucket]);
+                } else {
+                    builder.append('>').append(LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]);
+                }
+                builder.append("ms:").append(histogram[bucket]);
+                first = false;
+            }
+            if (!first) {
+                builder.append(']');
+            }
+        }
+    }
+
+    /**
+     * Records a request that received a response
+     *
+     * @param endpoint the endpoint
+     * @param latencyNanos the time from sending the request to receiving the whole response
+     * @param bytes the number of bytes of content received
+     */
+    public void recordResponse(String endpoint, long latencyNanos, long bytes) {
+        EndpointMetrics metrics = getEndpoint(endpoint);
+        metrics.requests.increment();
+        metrics.latencyNanos.add(latencyNanos);
+        metrics.bytesReceived.add(bytes);
+
+        long latency = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && latency > LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        metrics.latencyBuckets[bucket].increment();
+    }
+
+    /**
+     * Records the time spent parsing a response
+     *
+     * @param endpoint the endpoint
+     * @param parseNanos the time spent parsing
+     */
+    public void recordParse(String endpoint, long parseNanos) {
+        getEndpoint(endpoint).parseNanos.add(parseNanos);
+    }
+
+    /**
+     * Records a failed request
+     *
+     * @param endpoint the endpoint
+     * @param type the type of error
+     */
+    public void recordError(String endpoint, ErrorType type) {
+        LongAdder errors = getEndpoint(endpoint).errors.get(type);
+        if (errors != null) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Records a command, from when it was sent to the communicator to when the controller accepted or rejected it
+     *
+     * @param latencyNanos the time the command took
+     * @param success true if the controller accepted the command
+     */
+    public void recordCommand(long latencyNanos, boolean success) {
+        commands.increment();
+        commandLatencyNanos.add(latencyNanos);
+        if (TimeUnit.NANOSECONDS.toMillis(latencyNanos) > COMMAND_LATENCY_TARGET) {
+            commandsOverTarget.increment();
+        }
+        if (!success) {
+            commandsFailed.increment();
+        }
+    }
+
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    /**
+     * @return the mean command latency in milliseconds, or 0 if there have been no commands
+     */
+    public double getMeanCommandLatency() {
+        long commands = this.commands.sum();
+        return commands == 0 ? 0 : commandLatencyNanos.sum() / 1e6 / commands;
+    }
+
+    /**
+     * @return the number of commands that took longer than {@link #COMMAND_LATENCY_TARGET}
+     */
+    public long getCommandsOverTarget() {
+        return commandsOverTarget.sum();
+    }
+
+    public long getCommandsFailed() {
+        return commandsFailed.sum();
+    }
+
+    /**
+     * Records a request that had to wait for the rate limiter
+     */
+    public void recordThrottled() {
+        throttled.increment();
+    }
+
+    /**
+     * @return the number of requests that had to wait for the rate limiter
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return the metrics for each endpoint that has been used, sorted by endpoint
+     */
+    public Map<String, EndpointMetrics> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+    }
+
+    /**
+     * @return the total number of requests that received a response, across all endpoints
+     */
+    public long getRequests() {
+        long total = 0;
+        for (EndpointMetrics metrics : endpoints.values()) {
+            total += metrics.getRequests();
+        }
+        return total;
+    }
+
+    /**
+     * @return the total latency of all requests across all endpoints, in milliseconds
+     */
+    public long getTotalLatency() {
+        long total = 0;
+        for (EndpointMetrics metrics : endpoints.values()) {
+            total += metrics.getTotalLatency();
+        }
+        return total;
+    }
+
+    /**
+     * @return the total number of errors across all endpoints
+     */
+    public long getErrors() {
+        long total = 0;
+        for (EndpointMetrics metrics : endpoints.values()) {
+            total += metrics.getErrors();
+        }
+        return total;
+    }
+
+    private EndpointMetrics getEndpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, key -> new EndpointMetrics());
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The weather data computed by the controller's mixer for a single day. The day is kept as the compact JSON received
+ * from the controller, and fields are only read from it when they are asked for.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineMixerDay {
+    public static final String FIELD_TEMPERATURE = "temperature";
+    public static final String FIELD_MIN_TEMPERATURE = "minTemp";
+    public static final String FIELD_MAX_TEMPERATURE = "maxTemp";
+    public static final String FIELD_HUMIDITY = "rh";
+    public static final String FIELD_WIND = "wind";
+    public static final String FIELD_QPF = "qpf";
+    public static final String FIELD_RAIN = "rain";
+    public static final String FIELD_ET0 = "et0final";
+
+    private final LocalDate date;
+    private final String json;
+
+    public RainMachineMixerDay(LocalDate date, String json) {
+        this.date = date;
+        this.json = json;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * @return the raw JSON for the day
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * Reads a single numeric field. The other fields are skipped without being parsed.
+     *
+     * @param field the field name
+     * @return the value, or null if the field is missing, null or not a number
+     */
+    public @Nullable Double getDouble(String field) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (field.equals(reader.nextName()) && reader.peek() == JsonToken.NUMBER) {
+                    return reader.nextDouble();
+                }
+                reader.skipValue();
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // The field is treated as missing
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "RainMachineMixerDay [date=" + date + ", json=" + json + "]";
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The {@link RainMachineMixerParser} reads the response of the <code>mixer</code> API directly from the response
+ * stream, one day at a time. Each day is copied as compact JSON without building an object tree, and its fields are
+ * only parsed when they are used.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineMixerParser {
+
+    private static final String FIELD_DAYS = "mixerDataByDate";
+    private static final String FIELD_DAY = "day";
+
+    /**
+     * Parses a <code>mixer</code> response
+     *
+     * @param inputStream the response content
+     * @return the days in the response. Days without a valid date are left out.
+     * @throws IOException if the response is not a valid mixer response
+     */
+    public RainMachineMixerData parse(InputStream inputStream) throws IOException {
+        RainMachineMixerData mixerData = new RainMachineMixerData();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!FIELD_DAYS.equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    RainMachineMixerDay day = parseDay(reader);
+                    if (day != null) {
+                        mixerData.days.add(day);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid RainMachine mixer response: " + e.getMessage());
+        }
+
+        return mixerData;
+    }
+
+    /**
+     * Copies a day to compact JSON without building an object tree, picking out the date on the way
+     */
+    private @Nullable RainMachineMixerDay parseDay(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+
+        StringWriter json = new StringWriter(512);
+        String date = null;
+        try (JsonWriter writer = new JsonWriter(json)) {
+            reader.beginObject();
+            writer.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                writer.name(name);
+                if (FIELD_DAY.equals(name) && reader.peek() == JsonToken.STRING) {
+                    date = reader.nextString();
+                    writer.value(date);
+                } else {
+                    copyValue(reader, writer);
+                }
+            }
+            reader.endObject();
+            writer.endObject();
+        }
+
+        if (date == null) {
+            return null;
+        }
+        try {
+            // The day is given as "yyyy-MM-dd HH:mm:ss"
+            return new RainMachineMixerDay(LocalDate.parse(date.substring(0, Math.min(10, date.length()))),
+                    json.toString());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copyValue(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copyValue(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                // Numbers are copied as written, without converting them
+                writer.jsonValue(reader.nextString());
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                reader.skipValue();
+                writer.nullValue();
+                break;
+        }
+    }
+}
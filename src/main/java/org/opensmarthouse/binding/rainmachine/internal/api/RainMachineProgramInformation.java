@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+/**
+ * A watering program, as reported by the program API
+ *
+ * @author agent - Initial contribution
+ */
+public class RainMachineProgramInformation {
+    public static final int STATUS_IDLE = 0;
+    public static final int STATUS_RUNNING = 1;
+    public static final int STATUS_QUEUED = 2;
+
+    public int uid;
+    public String name = "";
+    public boolean active;
+    public int status;
+    /**
+     * The date of the next run, as yyyy-MM-dd
+     */
+    public String nextRun = "";
+    /**
+     * The time of day at which the program starts, as HH:mm
+     */
+    public String startTime = "";
+
+    /**
+     * @return true if the program is currently running or is queued to run
+     */
+    public boolean isRunning() {
+        return status == STATUS_RUNNING || status == STATUS_QUEUED;
+    }
+
+    @Override
+    public String toString() {
+        return "RainMachineProgramInformation [uid=" + uid + ", name=" + name + ", active=" + active + ", status="
+                + status + ", nextRun=" + nextRun + ", startTime=" + startTime + "]";
+    }
+}
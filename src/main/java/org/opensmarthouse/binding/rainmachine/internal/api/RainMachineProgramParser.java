@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The {@link RainMachineProgramParser} reads the response of the <code>program</code> and
+ * <code>watering/program</code> APIs directly from the response stream. Only the fields used by the binding are
+ * kept; the watering times and schedule details of each program are skipped. A checksum of the body is computed as
+ * it is read, and is used as the fingerprint of the response.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineProgramParser {
+
+    private static final String FIELD_PROGRAMS = "programs";
+
+    /**
+     * Parses a <code>program</code> or <code>watering/program</code> response
+     *
+     * @param inputStream the response content
+     * @return the parsed programs
+     * @throws IOException if the response is not a valid program response
+     */
+    public RainMachineProgramsInformation parse(InputStream inputStream) throws IOException {
+        RainMachineProgramsInformation programsInformation = new RainMachineProgramsInformation();
+        CRC32 checksum = new CRC32();
+
+        try (JsonReader reader = new JsonReader(
+                new InputStreamReader(new CheckedInputStream(inputStream, checksum), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!FIELD_PROGRAMS.equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    programsInformation.programs.add(parseProgram(reader));
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid RainMachine program response: " + e.getMessage());
+        }
+
+        programsInformation.fingerprint = checksum.getValue();
+        return programsInformation;
+    }
+
+    private RainMachineProgramInformation parseProgram(JsonReader reader) throws IOException {
+        RainMachineProgramInformation program = new RainMachineProgramInformation();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case "uid":
+                    program.uid = reader.nextInt();
+                    break;
+                case "name":
+                    program.name = reader.nextString();
+                    break;
+                case "active":
+                    program.active = nextBoolean(reader);
+                    break;
+                case "status":
+                    program.status = reader.nextInt();
+                    break;
+                case "nextRun":
+                    program.nextRun = reader.nextString();
+                    break;
+                case "startTime":
+                    program.startTime = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        return program;
+    }
+
+    /**
+     * Some firmware versions report flags as 0/1 rather than true/false
+     */
+    private boolean nextBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        return reader.nextInt() != 0;
+    }
+}
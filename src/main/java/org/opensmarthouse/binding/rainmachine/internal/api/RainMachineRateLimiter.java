@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link RainMachineRateLimiter} is a token bucket that limits the rate of requests to a controller, so that the
+ * binding does not load the controller so much that its own web interface stops responding. Every request takes a
+ * token from the shared bucket. Commands may also take a token from a separate command allowance when the shared
+ * bucket is empty. The command allowance is only filled by tokens that would overflow the full shared bucket, so the
+ * long term rate never exceeds the configured rate.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineRateLimiter {
+
+    private final double rate;
+    private final double burst;
+    private final double commandBurst;
+
+    private double tokens;
+    private double commandTokens;
+    private long lastRefill;
+
+    /**
+     * @param rate the long term number of requests per second
+     * @param burst the number of requests that can be sent at once after an idle period
+     * @param commandBurst the number of extra commands that can be sent at once when the shared bucket is empty
+     */
+    public RainMachineRateLimiter(double rate, int burst, int commandBurst) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.commandBurst = Math.max(0, commandBurst);
+        this.tokens = this.burst;
+        this.commandTokens = this.commandBurst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if one is available
+     *
+     * @param command true if the request is a command, which may use the command allowance
+     * @return 0 if a token was taken, otherwise the number of nanoseconds until a token will be available
+     */
+    public synchronized long tryAcquire(boolean command) {
+        refill();
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        if (command && commandTokens >= 1) {
+            commandTokens--;
+            return 0;
+        }
+        return Math.max(1, (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double added = (now - lastRefill) / (double) TimeUnit.SECONDS.toNanos(1) * rate;
+        lastRefill = now;
+
+        tokens += added;
+        if (tokens > burst) {
+            commandTokens = Math.min(commandBurst, commandTokens + tokens - burst);
+            tokens = burst;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineException;
+
+/**
+ * The {@link RainMachineRequestScheduler} limits the requests in progress to a controller, and decides which waiting
+ * request is sent next. Requests are in one of two lanes. Interactive requests, such as zone commands, are always
+ * sent before waiting background requests, such as polls. Background requests can never use the last free slot, so an
+ * interactive request is sent straight away even while a poll is in progress.
+ * <p>
+ * If a {@link RainMachineRateLimiter} is set, each request must also take a token before it is sent. A request that
+ * has to wait for a token is counted as throttled in the {@link RainMachineMetrics}.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineRequestScheduler {
+
+    public enum Lane {
+        /**
+         * Requests made for the user, which should be sent as soon as possible
+         */
+        INTERACTIVE,
+        /**
+         * Requests made by polling, which can wait
+         */
+        BACKGROUND
+    }
+
+    private final int maxInFlight;
+    private final @Nullable RainMachineRateLimiter rateLimiter;
+    private final ScheduledExecutorService scheduler;
+
+    private final Queue<Task> interactiveQueue = new ArrayDeque<>();
+    private final Queue<Task> backgroundQueue = new ArrayDeque<>();
+    private int inFlight = 0;
+    private final RainMachineMetrics metrics;
+    private @Nullable ScheduledFuture<?> drainJob;
+    private boolean disposed = false;
+
+    /**
+     * @param maxInFlight the maximum number of requests in progress. This should not be more than the HTTP client
+     *            connections to the controller, so that requests never queue inside the HTTP client.
+     * @param rateLimiter the rate limiter, or null to send requests as soon as a slot is free
+     * @param scheduler the scheduler used to send requests once the rate limiter has a token
+     * @param metrics the metrics that record the throttled requests
+     */
+    public RainMachineRequestScheduler(int maxInFlight, @Nullable RainMachineRateLimiter rateLimiter,
+            ScheduledExecutorService scheduler, RainMachineMetrics metrics) {
+        this.maxInFlight = Math.max(2, maxInFlight);
+        this.rateLimiter = rateLimiter;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sends a request when a slot is free in its lane
+     *
+     * @param lane the lane for the request
+     * @param request the function that sends the request
+     * @return a future that completes with the response, or fails if the scheduler is disposed before the request is
+     *         sent
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task task = new Task(lane, () -> {
+            CompletableFuture<T> sent;
+            try {
+                sent = request.get();
+            } catch (RuntimeException e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            sent.whenComplete((response, exception) -> {
+                // Free the slot before completing, so that the next request is not held up by the caller
+                release();
+                if (exception != null) {
+                    future.completeExceptionally(exception);
+                } else {
+                    future.complete(response);
+                }
+            });
+        }, future::completeExceptionally);
+
+        boolean queued;
+        synchronized (this) {
+            queued = !disposed;
+            if (queued) {
+                (lane == Lane.INTERACTIVE ? interactiveQueue : backgroundQueue).add(task);
+            }
+        }
+        if (!queued) {
+            future.completeExceptionally(createDisposedException());
+            return future;
+        }
+        drain();
+        return future;
+    }
+
+    /**
+     * @return the number of requests waiting to be sent
+     */
+    public synchronized int getQueued() {
+        return interactiveQueue.size() + backgroundQueue.size();
+    }
+
+    /**
+     * Stops waiting for the rate limiter. Requests that are still queued, including those waiting for a token, are not
+     * sent and their futures fail. Requests submitted after this fail straight away.
+     */
+    public void dispose() {
+        List<Task> queued;
+        synchronized (this) {
+            disposed = true;
+            ScheduledFuture<?> drainJob = this.drainJob;
+            if (drainJob != null) {
+                drainJob.cancel(false);
+            }
+            this.drainJob = null;
+
+            queued = new ArrayList<>(interactiveQueue);
+            queued.addAll(backgroundQueue);
+            interactiveQueue.clear();
+            backgroundQueue.clear();
+        }
+
+        // Complete the futures outside the lock, as callers may submit further requests when they complete
+        RainMachineException exception = createDisposedException();
+        queued.forEach(task -> task.fail.accept(exception));
+    }
+
+    private RainMachineException createDisposedException() {
+        return new RainMachineException("RainMachine request not sent, the communicator has been disposed");
+    }
+
+    private void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    /**
+     * Sends the waiting requests that have a free slot and a token
+     */
+    private void drain() {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            Task task;
+            while ((task = nextTask()) != null) {
+                RainMachineRateLimiter rateLimiter = this.rateLimiter;
+                long wait = rateLimiter == null ? 0 : rateLimiter.tryAcquire(task.lane == Lane.INTERACTIVE);
+                if (wait > 0) {
+                    if (!task.throttled) {
+                        task.throttled = true;
+                        metrics.recordThrottled();
+                    }
+                    scheduleDrain(wait);
+                    break;
+                }
+                (task.lane == Lane.INTERACTIVE ? interactiveQueue : backgroundQueue).remove();
+                inFlight++;
+                ready.add(task);
+            }
+        }
+        ready.forEach(task -> task.send.run());
+    }
+
+    private @Nullable Task nextTask() {
+        if (!interactiveQueue.isEmpty() && inFlight < maxInFlight) {
+            return interactiveQueue.peek();
+        }
+        // Background requests leave the last slot free, and wait while any interactive request is waiting
+        if (interactiveQueue.isEmpty() && !backgroundQueue.isEmpty() && inFlight < maxInFlight - 1) {
+            return backgroundQueue.peek();
+        }
+        return null;
+    }
+
+    private void scheduleDrain(long wait) {
+        ScheduledFuture<?> drainJob = this.drainJob;
+        if (drainJob != null) {
+            return;
+        }
+        this.drainJob = scheduler.schedule(() -> {
+            synchronized (this) {
+                this.drainJob = null;
+            }
+            drain();
+        }, wait, TimeUnit.NANOSECONDS);
+    }
+
+    private static class Task {
+        final Lane lane;
+        final Runnable send;
+        final Consumer<Throwable> fail;
+        boolean throttled = false;
+
+        Task(Lane lane, Runnable send, Consumer<Throwable> fail) {
+            this.lane = lane;
+            this.send = send;
+            this.fail = fail;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.concurrent.Executor;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.openhab.core.io.net.http.HttpClientFactory;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineException;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineHttpClientPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineSharedHttpClientPool} provides a single reference counted {@link HttpClient} for all
+ * RainMachine controllers. The client uses a bounded thread pool and limits the number of connections to each
+ * controller, and is stopped once the last user has released it. The client is stopped on the executor, as the last
+ * user may release it from one of the client's own threads, where stopping would wait for that thread to finish.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineSharedHttpClientPool implements RainMachineHttpClientPool {
+
+    private static final String CONSUMER_NAME = "rainmachine";
+
+    private static final int MIN_THREADS = 2;
+    private static final int MAX_THREADS = 16;
+    // Matches the requests a communicator allows in progress, so that requests are queued by priority in the
+    // communicator rather than in order by the HTTP client
+    private static final int MAX_CONNECTIONS_PER_DESTINATION = 3;
+    private static final int MAX_REQUESTS_QUEUED_PER_DESTINATION = 32;
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineSharedHttpClientPool.class);
+
+    private final HttpClientFactory httpClientFactory;
+    private final Executor executor;
+
+    private @Nullable HttpClient httpClient;
+    private int references = 0;
+
+    /**
+     * Creates the pool
+     *
+     * @param httpClientFactory the factory used to create the client
+     * @param executor the executor the client is stopped on
+     */
+    public RainMachineSharedHttpClientPool(HttpClientFactory httpClientFactory, Executor executor) {
+        this.httpClientFactory = httpClientFactory;
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized HttpClient acquire() throws RainMachineException {
+        HttpClient httpClient = this.httpClient;
+        if (httpClient == null) {
+            httpClient = createHttpClient();
+            this.httpClient = httpClient;
+        }
+
+        references++;
+        logger.debug("RainMachine HttpClient acquired, {} users", references);
+        return httpClient;
+    }
+
+    @Override
+    public void release(HttpClient httpClient) {
+        synchronized (this) {
+            if (httpClient != this.httpClient || references == 0) {
+                return;
+            }
+
+            references--;
+            logger.debug("RainMachine HttpClient released, {} users", references);
+            if (references != 0) {
+                return;
+            }
+            this.httpClient = null;
+        }
+
+        stop(httpClient);
+    }
+
+    /**
+     * Stops the shared client, regardless of how many users still hold it
+     */
+    public void dispose() {
+        HttpClient httpClient;
+        synchronized (this) {
+            httpClient = this.httpClient;
+            this.httpClient = null;
+            references = 0;
+        }
+
+        if (httpClient != null) {
+            stop(httpClient);
+        }
+    }
+
+    private void stop(HttpClient httpClient) {
+        executor.execute(() -> {
+            try {
+                httpClient.stop();
+                logger.debug("RainMachine HttpClient stopped");
+            } catch (Exception e) {
+                logger.debug("RainMachine exception stopping HttpClient", e);
+            }
+        });
+    }
+
+    private HttpClient createHttpClient() throws RainMachineException {
+        // RainMachine controllers use self signed certificates
+        SslContextFactory.Client sslContextFactory = new SslContextFactory.Client();
+        sslContextFactory.setTrustAll(true);
+        sslContextFactory.setValidateCerts(false);
+        sslContextFactory.setValidatePeerCerts(false);
+        sslContextFactory.setEndpointIdentificationAlgorithm(null);
+
+        HttpClient httpClient = httpClientFactory.createHttpClient(CONSUMER_NAME, sslContextFactory);
+
+        QueuedThreadPool threadPool = new QueuedThreadPool(MAX_THREADS, MIN_THREADS);
+        threadPool.setName(CONSUMER_NAME);
+        threadPool.setDaemon(true);
+        httpClient.setExecutor(threadPool);
+        httpClient.setMaxConnectionsPerDestination(MAX_CONNECTIONS_PER_DESTINATION);
+        httpClient.setMaxRequestsQueuedPerDestination(MAX_REQUESTS_QUEUED_PER_DESTINATION);
+
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new RainMachineException("Cannot start HttpClient!");
+        }
+
+        logger.debug("RainMachine HttpClient started");
+        return httpClient;
+    }
+}
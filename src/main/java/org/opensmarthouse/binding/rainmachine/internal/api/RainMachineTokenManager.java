@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.common.ThreadPoolManager;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineBindingConstants;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineTokenManager} holds the access token for a RainMachine controller. The token is refreshed
+ * in the background before it expires, and only one login is ever in progress at a time. Callers read the current
+ * token without locking.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineTokenManager {
+
+    /**
+     * Lifetime assumed if the controller does not report one
+     */
+    private static final long DEFAULT_LIFETIME = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Maximum time before expiry at which the token is refreshed
+     */
+    private static final long MAXIMUM_REFRESH_MARGIN = TimeUnit.HOURS.toMillis(1);
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineTokenManager.class);
+    private final ScheduledExecutorService scheduler = ThreadPoolManager
+            .getScheduledPool(RainMachineBindingConstants.THREAD_POOL_NAME);
+
+    private final Supplier<CompletableFuture<RainMachineLoginResponse>> login;
+
+    private volatile @Nullable Token token;
+
+    private @Nullable CompletableFuture<String> pendingLogin;
+    private @Nullable ScheduledFuture<?> refreshJob;
+    private boolean disposed = false;
+
+    /**
+     * Creates a token manager
+     *
+     * @param login the function that sends the login request to the controller
+     */
+    public RainMachineTokenManager(Supplier<CompletableFuture<RainMachineLoginResponse>> login) {
+        this.login = login;
+    }
+
+    /**
+     * Returns a valid access token. If the current token is valid it is returned immediately, otherwise a login is
+     * started, or an existing login is joined.
+     *
+     * @return a future that completes with the access token
+     */
+    public CompletableFuture<String> getToken() {
+        Token token = this.token;
+        if (token != null && !token.isExpired()) {
+            return CompletableFuture.completedFuture(token.value);
+        }
+        return refresh();
+    }
+
+    /**
+     * Discards a token that the controller has rejected. If the token has already been replaced, this does nothing.
+     *
+     * @param rejected the token that was rejected
+     */
+    public void invalidate(String rejected) {
+        Token token = this.token;
+        if (token != null && token.value.equals(rejected)) {
+            logger.debug("RainMachine access token rejected");
+            this.token = null;
+        }
+    }
+
+    /**
+     * Stops the background refresh
+     */
+    public synchronized void dispose() {
+        disposed = true;
+        ScheduledFuture<?> refreshJob = this.refreshJob;
+        if (refreshJob != null) {
+            refreshJob.cancel(false);
+        }
+        this.refreshJob = null;
+        token = null;
+    }
+
+    private synchronized CompletableFuture<String> refresh() {
+        CompletableFuture<String> pendingLogin = this.pendingLogin;
+        if (pendingLogin != null) {
+            return pendingLogin;
+        }
+
+        logger.debug("RainMachine logging in");
+        CompletableFuture<String> future = login.get().thenApply(this::updateToken);
+        this.pendingLogin = future;
+        future.whenComplete((token, exception) -> loginComplete(future));
+        return future;
+    }
+
+    private synchronized void loginComplete(CompletableFuture<String> future) {
+        if (pendingLogin == future) {
+            pendingLogin = null;
+        }
+    }
+
+    private String updateToken(RainMachineLoginResponse response) {
+        if (response.accessToken == null || response.accessToken.isEmpty()) {
+            throw new CompletionException(
+                    new RainMachineException("RainMachine login failed with status " + response.statusCode));
+        }
+
+        long lifetime = response.expiresIn > 0 ? TimeUnit.SECONDS.toMillis(response.expiresIn) : DEFAULT_LIFETIME;
+        token = new Token(response.accessToken, System.currentTimeMillis() + lifetime);
+        scheduleRefresh(lifetime - Math.min(lifetime / 10, MAXIMUM_REFRESH_MARGIN));
+        logger.debug("RainMachine access token valid for {}s", TimeUnit.MILLISECONDS.toSeconds(lifetime));
+
+        return response.accessToken;
+    }
+
+    private synchronized void scheduleRefresh(long delay) {
+        if (disposed) {
+            return;
+        }
+        ScheduledFuture<?> refreshJob = this.refreshJob;
+        if (refreshJob != null) {
+            refreshJob.cancel(false);
+        }
+        this.refreshJob = scheduler.schedule(() -> {
+            refresh().exceptionally(e -> {
+                logger.debug("RainMachine background token refresh failed", e);
+                return "";
+            });
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Token {
+        final String value;
+        final long expiresAt;
+
+        Token(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The watering cycles returned by the watering log API
+ *
+ * @author agent - Initial contribution
+ */
+public class RainMachineWateringLog extends RainMachineResponse {
+    public List<RainMachineWateringLogEntry> entries = new ArrayList<>();
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+/**
+ * A single watering cycle of a zone, as reported in the watering log
+ *
+ * @author agent - Initial contribution
+ */
+public class RainMachineWateringLogEntry {
+    public int zoneUid;
+    public int programId;
+    /**
+     * The start time of the cycle, in seconds since the epoch
+     */
+    public long startTime;
+    /**
+     * The time the zone actually watered, in seconds
+     */
+    public int realDuration;
+    /**
+     * The time the zone was scheduled to water, in seconds
+     */
+    public int userDuration;
+    public int flag;
+
+    @Override
+    public String toString() {
+        return "RainMachineWateringLogEntry [zoneUid=" + zoneUid + ", programId=" + programId + ", startTime="
+                + startTime + ", realDuration=" + realDuration + ", userDuration=" + userDuration + ", flag=" + flag
+                + "]";
+    }
+}
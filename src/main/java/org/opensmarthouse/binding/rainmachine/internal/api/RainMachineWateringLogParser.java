@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The {@link RainMachineWateringLogParser} reads the response of the <code>watering/log/details</code> API directly
+ * from the response stream. The log is nested by day, program, zone and cycle, and only the cycles are kept, so the
+ * days, programs and zones are never built as objects.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineWateringLogParser {
+
+    private static final DateTimeFormatter START_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Parses a <code>watering/log/details</code> response
+     *
+     * @param inputStream the response content
+     * @return the watering cycles in the log
+     * @throws IOException if the response is not a valid watering log response
+     */
+    public RainMachineWateringLog parse(InputStream inputStream) throws IOException {
+        RainMachineWateringLog log = new RainMachineWateringLog();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (!"waterLog".equals(name) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (nextArray(reader, "days")) {
+                        while (reader.hasNext()) {
+                            parseDay(reader, log);
+                        }
+                        reader.endArray();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid RainMachine watering log response: " + e.getMessage());
+        }
+
+        return log;
+    }
+
+    private void parseDay(JsonReader reader, RainMachineWateringLog log) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (nextArray(reader, "programs")) {
+                while (reader.hasNext()) {
+                    parseProgram(reader, log);
+                }
+                reader.endArray();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void parseProgram(JsonReader reader, RainMachineWateringLog log) throws IOException {
+        int programId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                programId = reader.nextInt();
+            } else if ("zones".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    parseZone(reader, log, programId);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void parseZone(JsonReader reader, RainMachineWateringLog log, int programId) throws IOException {
+        int zoneUid = 0;
+        int flag = 0;
+        int firstCycle = log.entries.size();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("uid".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                zoneUid = reader.nextInt();
+            } else if ("flag".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                flag = reader.nextInt();
+            } else if ("cycles".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    RainMachineWateringLogEntry entry = parseCycle(reader);
+                    if (entry.startTime != 0) {
+                        entry.programId = programId;
+                        log.entries.add(entry);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // The zone fields may come after the cycles
+        for (int cycle = firstCycle; cycle < log.entries.size(); cycle++) {
+            log.entries.get(cycle).zoneUid = zoneUid;
+            log.entries.get(cycle).flag = flag;
+        }
+    }
+
+    private RainMachineWateringLogEntry parseCycle(JsonReader reader) throws IOException {
+        RainMachineWateringLogEntry entry = new RainMachineWateringLogEntry();
+        long startTimestamp = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case "startTime":
+                    entry.startTime = parseStartTime(reader.nextString());
+                    break;
+                case "startTimestamp":
+                    startTimestamp = reader.nextLong();
+                    break;
+                case "realDuration":
+                    entry.realDuration = reader.nextInt();
+                    break;
+                case "userDuration":
+                    entry.userDuration = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (entry.startTime == 0) {
+            entry.startTime = startTimestamp;
+        }
+        return entry;
+    }
+
+    /**
+     * The start time is given in the controller's local time, which is assumed to be the same as the system's
+     */
+    private long parseStartTime(String startTime) {
+        try {
+            return LocalDateTime.parse(startTime, START_TIME_FORMAT).atZone(ZoneId.systemDefault()).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the next name, and begins the array if it has the given name. Any other value is skipped.
+     *
+     * @return true if the array was begun
+     */
+    private boolean nextArray(JsonReader reader, String arrayName) throws IOException {
+        if (arrayName.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            return true;
+        }
+        reader.skipValue();
+        return false;
+    }
+}
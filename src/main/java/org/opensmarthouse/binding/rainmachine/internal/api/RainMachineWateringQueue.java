@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Response to the <code>watering/queue</code> request. Only zones that are running or queued are in the queue.
+ *
+ * @author agent - Initial contribution
+ */
+public class RainMachineWateringQueue extends RainMachineResponse {
+    public List<RainMachineZoneRuntime> queue = new ArrayList<>();
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The {@link RainMachineWateringQueueParser} reads the response of the <code>watering/queue</code> API directly from
+ * the response stream. The queue format is not documented and differs between firmware versions, so the parser is
+ * lenient: unknown fields are skipped, fields of an unexpected type are ignored, and entries without a zone ID are
+ * dropped. A response without a <code>queue</code> array is an error, as an empty queue would show every zone as
+ * stopped.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineWateringQueueParser {
+
+    private static final String FIELD_QUEUE = "queue";
+
+    /**
+     * Parses a <code>watering/queue</code> response
+     *
+     * @param inputStream the response content
+     * @return the zones in the queue
+     * @throws IOException if the response is not valid JSON, or has no <code>queue</code> array
+     */
+    public RainMachineWateringQueue parse(InputStream inputStream) throws IOException {
+        RainMachineWateringQueue queue = new RainMachineWateringQueue();
+        boolean queueFound = false;
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!FIELD_QUEUE.equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    throw new IOException("Invalid RainMachine watering queue response: queue is not an array");
+                }
+
+                queueFound = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    RainMachineZoneRuntime runtime = parseEntry(reader);
+                    if (runtime.zid > 0) {
+                        queue.queue.add(runtime);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid RainMachine watering queue response: " + e.getMessage());
+        }
+
+        if (!queueFound) {
+            throw new IOException("Invalid RainMachine watering queue response: no queue");
+        }
+        return queue;
+    }
+
+    private RainMachineZoneRuntime parseEntry(JsonReader reader) throws IOException {
+        RainMachineZoneRuntime runtime = new RainMachineZoneRuntime();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "zid":
+                    runtime.zid = nextInt(reader, 0);
+                    break;
+                case "running":
+                    runtime.running = nextBoolean(reader);
+                    break;
+                case "remaining":
+                    runtime.remaining = Math.max(0, nextInt(reader, 0));
+                    break;
+                case "cycle":
+                    runtime.cycle = nextInt(reader, 0);
+                    break;
+                case "cycles":
+                    runtime.cycles = nextInt(reader, 0);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        return runtime;
+    }
+
+    /**
+     * Reads a number, which may also be sent as a string. Any other value is skipped.
+     */
+    private int nextInt(JsonReader reader, int defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            try {
+                return (int) Double.parseDouble(reader.nextString());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        reader.skipValue();
+        return defaultValue;
+    }
+
+    /**
+     * Reads a flag, which may be sent as true/false or as 0/1. Any other value is read as false.
+     */
+    private boolean nextBoolean(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        return nextInt(reader, 0) != 0;
+    }
+}
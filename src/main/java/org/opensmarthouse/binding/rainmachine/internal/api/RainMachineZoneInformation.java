@@ -1,18 +1,72 @@
 package org.opensmarthouse.binding.rainmachine.internal.api;
 
 public class RainMachineZoneInformation {
-    public Integer uid;
-    public String name;
-    public Integer state;
-    public Boolean active;
-    public Integer userDuration;
-    public Integer machineDuration;
-    public Integer remaining;
-    public Integer cycle;
-    public Integer noOfCycles;
-    public Boolean restriction;
-    public Integer type;
-    public Boolean master;
+    public static final int STATE_INACTIVE = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_QUEUED = 2;
+
+    public int uid;
+    public String name = "";
+    public int state;
+    public boolean active;
+    public int userDuration;
+    public int machineDuration;
+    public int remaining;
+    public int cycle;
+    public int noOfCycles;
+    public boolean restriction;
+    public int type;
+    public boolean master;
+
+    /**
+     * @return true if the zone is currently running or is queued to run
+     */
+    public boolean isWatering() {
+        return state == STATE_RUNNING || state == STATE_QUEUED;
+    }
+
+    /**
+     * Sets the runtime state of the zone from its entry in the watering queue
+     *
+     * @param runtime the entry for the zone in the watering queue, or null if the zone is not in the queue
+     */
+    public void applyRuntime(RainMachineZoneRuntime runtime) {
+        if (runtime == null) {
+            state = STATE_INACTIVE;
+            remaining = 0;
+            cycle = 0;
+            return;
+        }
+        state = runtime.running ? STATE_RUNNING : STATE_QUEUED;
+        remaining = runtime.remaining;
+        cycle = runtime.cycle;
+        if (runtime.cycles > 0) {
+            noOfCycles = runtime.cycles;
+        }
+    }
+
+    /**
+     * Returns a copy of the record. Records are not changed once they have been cached, so the runtime state is
+     * applied to a copy.
+     *
+     * @return a new record with the same fields
+     */
+    public RainMachineZoneInformation copy() {
+        RainMachineZoneInformation copy = new RainMachineZoneInformation();
+        copy.uid = uid;
+        copy.name = name;
+        copy.state = state;
+        copy.active = active;
+        copy.userDuration = userDuration;
+        copy.machineDuration = machineDuration;
+        copy.remaining = remaining;
+        copy.cycle = cycle;
+        copy.noOfCycles = noOfCycles;
+        copy.restriction = restriction;
+        copy.type = type;
+        copy.master = master;
+        return copy;
+    }
 
     @Override
     public String toString() {
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The {@link RainMachineZoneParser} reads the response of the <code>zone</code> API directly from the response
+ * stream, without building an intermediate string or JSON tree.
+ * <p>
+ * Each call returns new records, which are never changed by a later call, so the result can be cached and read from
+ * other threads.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineZoneParser {
+
+    private static final String FIELD_ZONES = "zones";
+
+    /**
+     * Parses a <code>zone</code> response
+     *
+     * @param inputStream the response content
+     * @return the parsed zones
+     * @throws IOException if the response is not a valid zone response
+     */
+    public RainMachineZonesInformation parse(InputStream inputStream) throws IOException {
+        List<RainMachineZoneInformation> zones = new ArrayList<>();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!FIELD_ZONES.equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    zones.add(parseZone(reader));
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid RainMachine zone response: " + e.getMessage());
+        }
+
+        RainMachineZonesInformation zonesInformation = new RainMachineZonesInformation();
+        zonesInformation.zones = zones;
+        return zonesInformation;
+    }
+
+    private RainMachineZoneInformation parseZone(JsonReader reader) throws IOException {
+        RainMachineZoneInformation zone = new RainMachineZoneInformation();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case "uid":
+                    zone.uid = reader.nextInt();
+                    break;
+                case "name":
+                    zone.name = reader.nextString();
+                    break;
+                case "state":
+                    zone.state = reader.nextInt();
+                    break;
+                case "active":
+                    zone.active = nextBoolean(reader);
+                    break;
+                case "userDuration":
+                    zone.userDuration = reader.nextInt();
+                    break;
+                case "machineDuration":
+                    zone.machineDuration = reader.nextInt();
+                    break;
+                case "remaining":
+                    zone.remaining = reader.nextInt();
+                    break;
+                case "cycle":
+                    zone.cycle = reader.nextInt();
+                    break;
+                case "noOfCycles":
+                    zone.noOfCycles = reader.nextInt();
+                    break;
+                case "restriction":
+                    zone.restriction = nextBoolean(reader);
+                    break;
+                case "type":
+                    zone.type = reader.nextInt();
+                    break;
+                case "master":
+                    zone.master = nextBoolean(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return zone;
+    }
+
+    /**
+     * Some firmware versions report flags as 0/1 rather than true/false
+     */
+    private boolean nextBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        return reader.nextInt() != 0;
+    }
+}
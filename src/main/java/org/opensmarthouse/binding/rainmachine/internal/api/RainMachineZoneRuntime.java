@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.api;
+
+/**
+ * The runtime state of a zone that is running or queued, from the <code>watering/queue</code> API. This is the fast
+ * changing part of a zone. The slow changing properties are in {@link RainMachineZoneInformation}.
+ *
+ * @author agent - Initial contribution
+ */
+public class RainMachineZoneRuntime {
+    public int zid;
+    public boolean running;
+    public int remaining;
+    public int cycle;
+    public int cycles;
+
+    @Override
+    public String toString() {
+        return "RainMachineZoneRuntime [zid=" + zid + ", running=" + running + ", remaining=" + remaining + ", cycle="
+                + cycle + ", cycles=" + cycles + "]";
+    }
+}
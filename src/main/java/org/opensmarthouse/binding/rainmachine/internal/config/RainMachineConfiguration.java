@@ -35,6 +35,27 @@ public class RainMachineConfiguration {
 
     /**
      * Number of seconds in between refreshes from the RainMachine device.
+     * This is the slowest rate used once all zones are idle.
      */
     public int refresh = 60;
+
+    /**
+     * Number of seconds in between refreshes while any zone is running or queued.
+     */
+    public int refreshActive = 5;
+
+    /**
+     * Maximum long term number of requests per second sent to the controller. 0, the default, disables the limit.
+     */
+    public double rateLimit = 0;
+
+    /**
+     * Number of requests that can be sent at once after the controller has been idle.
+     */
+    public int rateBurst = 8;
+
+    /**
+     * Number of extra zone commands that can be sent at once when the request limit has been reached.
+     */
+    public int commandBurst = 4;
 }
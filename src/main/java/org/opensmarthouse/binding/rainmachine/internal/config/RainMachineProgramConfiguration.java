@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.config;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link RainMachineProgramConfiguration} class contains fields mapping thing configuration parameters.
+ *
+ * @author agent - Initial contribution
+ */
+
+@NonNullByDefault
+public class RainMachineProgramConfiguration {
+
+    /**
+     * UID of the program
+     */
+    public Integer uid = 0;
+
+}
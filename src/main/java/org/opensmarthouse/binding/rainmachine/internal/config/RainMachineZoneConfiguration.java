@@ -28,4 +28,14 @@ public class RainMachineZoneConfiguration {
      */
     public Integer uid = 0;
 
+    /**
+     * Number of seconds between updates of the locally counted down remaining time. 0 disables the countdown.
+     */
+    public int countdownRate = 1;
+
+    /**
+     * Number of seconds the zone waters for when it is switched on
+     */
+    public int duration = 600;
+
 }
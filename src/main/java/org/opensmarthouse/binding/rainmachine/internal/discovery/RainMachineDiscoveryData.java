@@ -1,5 +1,8 @@
 package org.opensmarthouse.binding.rainmachine.internal.discovery;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * RainMachine discovery data processor
  *
@@ -10,22 +13,79 @@ public class RainMachineDiscoveryData {
 
     private final String fingerprint = "SPRINKLER";
 
+    private static final int FIELD_COUNT = 4;
+    private static final byte SEPARATOR = '|';
+
     private final String id;
     private final String mac;
     private final String name;
     private final String address;
 
     public RainMachineDiscoveryData(String message) {
-        String[] discoveryData = message.split("\\|\\|");
+        String[] discoveryData = new String[FIELD_COUNT];
+
+        int start = 0;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            int end = message.indexOf("||", start);
+            if (end == -1) {
+                end = message.length();
+            }
+            discoveryData[field] = start <= end ? message.substring(start, end).trim() : "";
+            start = end + 2;
+        }
+
+        id = discoveryData[0];
+        mac = discoveryData[1];
+        name = discoveryData[2];
+        address = discoveryData[3];
+    }
 
+    private RainMachineDiscoveryData(String[] discoveryData) {
         id = discoveryData[0];
         mac = discoveryData[1];
         name = discoveryData[2];
         address = discoveryData[3];
     }
 
+    /**
+     * Parses a discovery message directly from a buffer, without copying the whole message into a string. The
+     * message is read between the buffer's position and limit, and the buffer position is not changed.
+     *
+     * @param buffer the received datagram
+     * @return the {@link RainMachineDiscoveryData}
+     */
+    public static RainMachineDiscoveryData parse(ByteBuffer buffer) {
+        String[] discoveryData = new String[FIELD_COUNT];
+
+        int limit = buffer.limit();
+        // Trailing padding or whitespace is not part of the message
+        while (limit > buffer.position() && (buffer.get(limit - 1) & 0xff) <= ' ') {
+            limit--;
+        }
+
+        int start = buffer.position();
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            int end = start;
+            while (end < limit && !(buffer.get(end) == SEPARATOR && end + 1 < limit
+                    && buffer.get(end + 1) == SEPARATOR)) {
+                end++;
+            }
+            discoveryData[field] = decode(buffer, start, Math.max(start, end));
+            start = Math.min(end + 2, limit);
+        }
+
+        return new RainMachineDiscoveryData(discoveryData);
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        ByteBuffer field = buffer.duplicate();
+        field.limit(end);
+        field.position(start);
+        return StandardCharsets.UTF_8.decode(field).toString().trim();
+    }
+
     public boolean isValid() {
-        return fingerprint.equals(id);
+        return fingerprint.equals(id) && !address.isEmpty();
     }
 
     public String getName() {
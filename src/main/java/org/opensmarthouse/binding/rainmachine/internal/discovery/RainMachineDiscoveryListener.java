@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.discovery;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineDiscoveryListener} listens continuously for RainMachine discovery replies on a non-blocking
+ * {@link DatagramChannel}, and sends the discovery broadcast periodically. Controllers that reply late are still
+ * seen, and a single direct buffer is reused for every datagram. The discovery message can also be sent directly to a
+ * host, for networks that filter the broadcast.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineDiscoveryListener {
+
+    private static final int BUFFER_SIZE = 2048;
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineDiscoveryListener.class);
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer broadcastMessage;
+    private final InetSocketAddress broadcastAddress;
+    private final int broadcastPort;
+    private final int listenPort;
+    private final long broadcastInterval;
+    private final DiscoveryCallback callback;
+    private final Queue<InetSocketAddress> pendingQueries = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean broadcastRequested = false;
+    // Each listener thread runs until this no longer holds its own selector, so a thread that has not yet seen a stop
+    // cannot be kept running by a later start
+    private volatile @Nullable Selector selector;
+
+    /**
+     * Receives the devices found by the listener
+     */
+    @FunctionalInterface
+    public interface DiscoveryCallback {
+        /**
+         * Called on the listener thread for every valid discovery reply
+         *
+         * @param discoveryData the device that replied
+         */
+        void deviceDiscovered(RainMachineDiscoveryData discoveryData);
+    }
+
+    /**
+     * Creates a listener
+     *
+     * @param message the broadcast discovery message
+     * @param broadcastPort the port to which the broadcast is sent
+     * @param listenPort the port on which replies are received
+     * @param broadcastInterval the number of seconds between broadcasts
+     * @param callback the callback for discovered devices
+     */
+    public RainMachineDiscoveryListener(String message, int broadcastPort, int listenPort, int broadcastInterval,
+            DiscoveryCallback callback) {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        this.broadcastMessage = ByteBuffer.allocateDirect(messageBytes.length);
+        this.broadcastMessage.put(messageBytes).flip();
+        this.broadcastAddress = new InetSocketAddress("255.255.255.255", broadcastPort);
+        this.broadcastPort = broadcastPort;
+        this.listenPort = listenPort;
+        this.broadcastInterval = TimeUnit.SECONDS.toMillis(broadcastInterval);
+        this.callback = callback;
+    }
+
+    /**
+     * Opens the channel and starts the listener thread
+     *
+     * @throws IOException if the channel could not be opened
+     */
+    public synchronized void start() throws IOException {
+        if (this.selector != null) {
+            return;
+        }
+
+        Selector selector = Selector.open();
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(listenPort));
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            selector.close();
+            throw e;
+        }
+
+        this.selector = selector;
+        Thread thread = new Thread(() -> listen(selector), "rainmachine-discovery-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the listener thread and closes the channel
+     */
+    public synchronized void stop() {
+        Selector selector = this.selector;
+        this.selector = null;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return true if the listener is running
+     */
+    public boolean isRunning() {
+        return selector != null;
+    }
+
+    /**
+     * Requests a broadcast to be sent straight away rather than waiting for the next interval
+     */
+    public void broadcastNow() {
+        broadcastRequested = true;
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Requests the discovery message to be sent directly to a host. The reply is reported to the callback in the same
+     * way as a reply to the broadcast.
+     *
+     * @param address the host to query
+     */
+    public void query(InetAddress address) {
+        pendingQueries.add(new InetSocketAddress(address, broadcastPort));
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void listen(Selector selector) {
+        logger.debug("RainMachine discovery listener started on port {}", listenPort);
+        long nextBroadcast = 0;
+        try {
+            while (this.selector == selector) {
+                long now = System.currentTimeMillis();
+                if (broadcastRequested || now >= nextBroadcast) {
+                    broadcastRequested = false;
+                    send(selector, broadcastAddress);
+                    nextBroadcast = now + broadcastInterval;
+                }
+                InetSocketAddress query;
+                while ((query = pendingQueries.poll()) != null) {
+                    send(selector, query);
+                }
+
+                selector.select(Math.max(1, nextBroadcast - System.currentTimeMillis()));
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        receive((DatagramChannel) key.channel());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("RainMachine discovery listener exception", e);
+        } finally {
+            synchronized (this) {
+                // Only a thread that failed on its own clears the selector, never one that was replaced by a restart
+                if (this.selector == selector) {
+                    this.selector = null;
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // Nothing more can be done
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Nothing more can be done
+            }
+            logger.debug("RainMachine discovery listener stopped");
+        }
+    }
+
+    private void send(Selector selector, InetSocketAddress address) {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                broadcastMessage.rewind();
+                ((DatagramChannel) key.channel()).send(broadcastMessage, address);
+                logger.trace("RainMachine discovery message sent to {}", address);
+            } catch (IOException e) {
+                logger.debug("RainMachine discovery message to {} failed: {}", address, e.getMessage());
+            }
+        }
+    }
+
+    private void receive(DatagramChannel channel) throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress sender = channel.receive(receiveBuffer);
+            if (sender == null) {
+                return;
+            }
+            receiveBuffer.flip();
+
+            RainMachineDiscoveryData discoveryData = RainMachineDiscoveryData.parse(receiveBuffer);
+            logger.debug("RainMachine discovery received data {} from {}", discoveryData, sender);
+            if (discoveryData.isValid()) {
+                callback.deviceDiscovered(discoveryData);
+            }
+        }
+    }
+}
@@ -17,7 +17,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jmdns.ServiceInfo;
 
@@ -30,7 +29,9 @@ import org.openhab.core.thing.ThingTypeUID;
 import org.openhab.core.thing.ThingUID;
 import org.opensmarthouse.binding.rainmachine.internal.RainMachineAddressCache;
 import org.opensmarthouse.binding.rainmachine.internal.RainMachineBindingConstants;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,19 +41,25 @@ import org.slf4j.LoggerFactory;
  * @author Chris Jackson - Initial contribution
  */
 @NonNullByDefault
-@Component(service = { MDNSDiscoveryParticipant.class,
-        RainMachineAddressCache.class }, configurationPid = "discovery.rainmachine")
-public class RainMachineDiscoveryParticipant implements MDNSDiscoveryParticipant, RainMachineAddressCache {
+@Component(service = MDNSDiscoveryParticipant.class, configurationPid = "discovery.rainmachine")
+public class RainMachineDiscoveryParticipant implements MDNSDiscoveryParticipant {
     private static final String RAINMACHINE_MDNS_ID = "rainmachine";
 
     private static final String DISCOVERY_ID = "id";
 
     private static final String CONFIG_ID = "id";
-    private static final String CONFIG_ADDRESS = "id";
+    private static final String CONFIG_ADDRESS = "host";
+
+    private static final int API_PORT = 8080;
 
     private final Logger logger = LoggerFactory.getLogger(RainMachineDiscoveryParticipant.class);
 
-    private final Map<String, @Nullable String> lastKnownHostAddresses = new ConcurrentHashMap<>();
+    private final RainMachineAddressCache hostAddressCache;
+
+    @Activate
+    public RainMachineDiscoveryParticipant(@Reference final RainMachineAddressCache hostAddressCache) {
+        this.hostAddressCache = hostAddressCache;
+    }
 
     @Override
     public Set<ThingTypeUID> getSupportedThingTypeUIDs() {
@@ -93,9 +100,12 @@ public class RainMachineDiscoveryParticipant implements MDNSDiscoveryParticipant
             logger.debug("No serial number found in data for discovered RainMachine {}: {}", id, info);
             return null;
         }
-        final String hostAddress = hostname == null ? "" : hostname.getHostAddress();
+        if (hostname == null) {
+            return null;
+        }
+        final String hostAddress = "https://" + hostname.getHostAddress() + ":" + API_PORT + "/";
 
-        lastKnownHostAddresses.put(serialNumber, hostAddress);
+        hostAddressCache.updateHostAddress(uid.getId(), hostAddress);
         final Map<String, Object> properties = new HashMap<>(3);
 
         properties.put(CONFIG_ID, serialNumber);
@@ -126,11 +136,4 @@ public class RainMachineDiscoveryParticipant implements MDNSDiscoveryParticipant
         return null;
     }
 
-    @Override
-    public String getLastKnownHostAddress(final String serialNumber) {
-        final String hostAddress = lastKnownHostAddresses.get(serialNumber);
-
-        return hostAddress == null ? "" : hostAddress;
-    }
-
 }
@@ -17,25 +17,44 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.common.NamedThreadFactory;
 import org.openhab.core.config.discovery.AbstractDiscoveryService;
 import org.openhab.core.config.discovery.DiscoveryResult;
 import org.openhab.core.config.discovery.DiscoveryResultBuilder;
 import org.openhab.core.config.discovery.DiscoveryService;
 import org.openhab.core.thing.ThingTypeUID;
 import org.openhab.core.thing.ThingUID;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineAddressCache;
 import org.opensmarthouse.binding.rainmachine.internal.RainMachineBindingConstants;
 import org.opensmarthouse.binding.rainmachine.internal.RainMachineException;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineHttpClientPool;
 import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineApiVersion;
 import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineCommunicator;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,24 +64,83 @@ import org.slf4j.LoggerFactory;
  * @author Chris Jackson - Initial contribution
  */
 @NonNullByDefault
-@Component(service = DiscoveryService.class, configurationPid = "discovery.rainmachine")
+@Component(service = DiscoveryService.class, configurationPid = "discovery.rainmachine", property = {
+        "service.config.description.uri=discovery:rainmachine", "service.config.label=RainMachine Discovery",
+        "service.config.category=discovery" })
 public class RainMachineDiscoveryService extends AbstractDiscoveryService {
 
     private final Logger logger = LoggerFactory.getLogger(RainMachineDiscoveryService.class);
 
     private static final int TIMEOUT = 15;
     private static final int BROADCAST_TIMEOUT = 80;
+    private static final int PROBE_TIMEOUT = 5;
+    private static final int BROADCAST_INTERVAL = 60;
+    private static final long REPROBE_PERIOD = TimeUnit.MINUTES.toMillis(10);
 
     private static final int BROADCAST_DISCOVERY_PORT_TX = 15800;
     private static final int BROADCAST_DISCOVERY_PORT_RX = 15900;
 
     private static final String BROADCAST_DISCOVERY_MESSAGE = "OpenSmartHouse Discovery";
 
+    private static final int API_PORT = 8080;
+    private static final int SUBNET_SCAN_MAX_IN_FLIGHT = 64;
+
+    private static final String CONFIG_AUTO_DISCOVER = "autoDiscover";
+    private static final String CONFIG_SUBNET = "subnet";
+
     private Map<ThingUID, ServiceRegistration<?>> discoveryServiceRegs = new HashMap<>();
 
-    public RainMachineDiscoveryService() {
+    private final RainMachineHttpClientPool clientPool;
+    private final RainMachineAddressCache hostAddressCache;
+
+    private @Nullable ThreadPoolExecutor probeExecutor;
+
+    private final RainMachineDiscoveryListener listener = new RainMachineDiscoveryListener(
+            BROADCAST_DISCOVERY_MESSAGE, BROADCAST_DISCOVERY_PORT_TX, BROADCAST_DISCOVERY_PORT_RX, BROADCAST_INTERVAL,
+            this::deviceDiscovered);
+
+    private final RainMachineSubnetScanner subnetScanner;
+    private @Nullable Future<?> subnetScanJob;
+
+    private boolean autoDiscover = RainMachineBindingConstants.DISCOVERY_DEFAULT_AUTO_DISCOVER;
+    private String subnet = "";
+
+    // The time each device was last probed, keyed by MAC address, so that repeated replies are not probed again
+    private final Map<String, Long> probedDevices = new ConcurrentHashMap<>();
+
+    @Activate
+    public RainMachineDiscoveryService(@Reference final RainMachineHttpClientPool clientPool,
+            @Reference final RainMachineAddressCache hostAddressCache) {
         super(RainMachineBindingConstants.SUPPORTED_THING_TYPES_UIDS, TIMEOUT, true);
-        startScan();
+        this.clientPool = clientPool;
+        this.hostAddressCache = hostAddressCache;
+        this.subnetScanner = new RainMachineSubnetScanner(scheduler, API_PORT,
+                RainMachineBindingConstants.DISCOVERY_DEFAULT_IP_TIMEOUT_RATE, SUBNET_SCAN_MAX_IN_FLIGHT);
+    }
+
+    @Override
+    @Activate
+    protected void activate(@Nullable Map<String, Object> configProperties) {
+        updateConfiguration(configProperties);
+        super.activate(configProperties);
+    }
+
+    @Override
+    @Modified
+    protected void modified(@Nullable Map<String, Object> configProperties) {
+        updateConfiguration(configProperties);
+        super.modified(configProperties);
+    }
+
+    private void updateConfiguration(@Nullable Map<String, Object> configProperties) {
+        if (configProperties == null) {
+            return;
+        }
+        Object autoDiscover = configProperties.get(CONFIG_AUTO_DISCOVER);
+        this.autoDiscover = autoDiscover == null ? RainMachineBindingConstants.DISCOVERY_DEFAULT_AUTO_DISCOVER
+                : Boolean.parseBoolean(autoDiscover.toString());
+        Object subnet = configProperties.get(CONFIG_SUBNET);
+        this.subnet = subnet == null ? "" : subnet.toString().trim();
     }
 
     @Override
@@ -74,81 +152,286 @@ public class RainMachineDiscoveryService extends AbstractDiscoveryService {
     protected void startScan() {
         logger.debug("RainMachine discovery starting scan");
 
-        for (RainMachineDiscoveryData discoveryData : updBroadcast()) {
-            if (discoveryData.isValid()) {
-                int zones = 16;
-                String model = "";
+        // A scan is an explicit request, so all devices that reply are probed again
+        probedDevices.clear();
 
-                try {
-                    RainMachineCommunicator communicator = new RainMachineCommunicator(discoveryData.getAddress());
-
-                    RainMachineApiVersion version = communicator.getVersions();
-
-                    switch (Integer.parseInt(version.hwVer)) {
-                        case 1:
-                            model = "Touch";
-                            zones = 8;
-                            break;
-                        case 2:
-                            model = "Mini-8";
-                            zones = 8;
-                            break;
-                        case 3:
-                            model = "HD-12/16";
-                            break;
-                        case 5:
-                            model = "Pro-8/16";
-                            break;
-                        default:
-                            break;
-                    }
-                } catch (RainMachineException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+        if (listener.isRunning()) {
+            // The listener owns the discovery port, so let it send the broadcast and report the replies
+            listener.broadcastNow();
+        } else {
+            for (RainMachineDiscoveryData discoveryData : sendDiscovery(
+                    Collections.singletonList("255.255.255.255"), BROADCAST_TIMEOUT, Long.MAX_VALUE)) {
+                deviceDiscovered(discoveryData);
+            }
+        }
 
-                ThingUID bridgeUid = new ThingUID(RainMachineBindingConstants.RAINMACHINE_BRIDGE,
-                        discoveryData.getMac().replaceAll("[^A-Za-z0-9\\-_]", "").toLowerCase());
-                DiscoveryResult discoveryResult = DiscoveryResultBuilder.create(bridgeUid)
-                        .withLabel("RainMachine " + model + ": " + discoveryData.getName())
-                        .withProperty("host", discoveryData.getAddress()).withProperty("mac", discoveryData.getMac())
-                        .withProperty("name", discoveryData.getName()).withRepresentationProperty("mac").build();
-                thingDiscovered(discoveryResult);
-
-                for (int zone = 1; zone <= zones; zone++) {
-                    ThingUID zoneUid = new ThingUID(RainMachineBindingConstants.RAINMACHINE_ZONE, bridgeUid,
-                            "zone" + zone);
-                    discoveryResult = DiscoveryResultBuilder.create(zoneUid).withBridge(bridgeUid)
-                            .withLabel("RainMachine " + model + ": " + discoveryData.getName() + " (Zone " + zone + ")")
-                            .withProperty("uid", zone + 1).withRepresentationProperty("uid").build();
-                    thingDiscovered(discoveryResult);
-                }
-            } else {
-                logger.debug("RainMachine scan received no responses");
+        if (autoDiscover) {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getScanTimeout());
+            synchronized (this) {
+                cancelSubnetScan();
+                subnetScanJob = scheduler.submit(() -> scanSubnet(deadline));
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void stopScan() {
+        cancelSubnetScan();
+        super.stopScan();
+    }
+
+    private synchronized void cancelSubnetScan() {
+        subnetScanner.cancel();
+        Future<?> subnetScanJob = this.subnetScanJob;
+        if (subnetScanJob != null) {
+            subnetScanJob.cancel(true);
+            this.subnetScanJob = null;
+        }
+    }
+
+    /**
+     * Sweeps the configured subnet, or the local subnets, for controllers. This finds controllers on networks that
+     * filter the discovery broadcast. The discovery message is then sent directly to each host that accepts a
+     * connection on the API port, so that controllers are identified by the MAC address in their reply, as they are
+     * for the broadcast.
+     *
+     * @param deadline the time, in milliseconds since the epoch, by which the scan must finish
+     */
+    private void scanSubnet(long deadline) {
+        List<InetAddress> addresses;
+        if (subnet.isEmpty()) {
+            addresses = RainMachineSubnetScanner
+                    .getLocalSubnetAddresses(RainMachineBindingConstants.DISCOVERY_SUBNET_MASK);
+        } else {
+            try {
+                addresses = RainMachineSubnetScanner.getSubnetAddresses(subnet);
+            } catch (IllegalArgumentException e) {
+                logger.warn("RainMachine discovery subnet is not valid: {}", e.getMessage());
+                return;
+            }
+        }
+
+        logger.debug("RainMachine discovery scanning {} addresses", addresses.size());
+        List<InetAddress> found = Collections.synchronizedList(new ArrayList<>());
+        try {
+            subnetScanner.scan(addresses, deadline, found::add);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        List<InetAddress> hosts;
+        synchronized (found) {
+            hosts = new ArrayList<>(found);
+        }
+        if (hosts.isEmpty() || System.currentTimeMillis() >= deadline) {
+            return;
+        }
+
+        if (listener.isRunning()) {
+            // The listener owns the discovery port, so let it send the queries and report the replies
+            hosts.forEach(listener::query);
+            return;
+        }
+
+        List<String> targets = new ArrayList<>();
+        hosts.forEach(host -> targets.add(host.getHostAddress()));
+        for (RainMachineDiscoveryData discoveryData : sendDiscovery(targets,
+                (int) TimeUnit.SECONDS.toMillis(PROBE_TIMEOUT), deadline)) {
+            deviceDiscovered(discoveryData);
+        }
+    }
+
+    @Override
+    protected void startBackgroundDiscovery() {
+        logger.debug("RainMachine discovery starting background discovery");
+        try {
+            listener.start();
+        } catch (IOException e) {
+            logger.debug("RainMachine discovery listener could not be started: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    protected void stopBackgroundDiscovery() {
+        logger.debug("RainMachine discovery stopping background discovery");
+        listener.stop();
+    }
+
+    @Override
+    @Deactivate
+    protected void deactivate() {
+        listener.stop();
+        cancelSubnetScan();
+
+        ExecutorService probeExecutor;
+        synchronized (this) {
+            probeExecutor = this.probeExecutor;
+            this.probeExecutor = null;
+        }
+        if (probeExecutor != null) {
+            probeExecutor.shutdownNow();
+            try {
+                probeExecutor.awaitTermination(
+                        RainMachineBindingConstants.DISCOVERY_THREAD_POOL_SHUTDOWN_WAIT_TIME_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.deactivate();
+    }
+
+    /**
+     * Called for each valid reply to the discovery broadcast. Devices are probed when first seen, and again once the
+     * reprobe period has passed, so that a device replying to every broadcast is not probed every time.
+     *
+     * @param discoveryData the device found in the discovery broadcast
+     */
+    private void deviceDiscovered(RainMachineDiscoveryData discoveryData) {
+        long now = System.currentTimeMillis();
+        Long lastProbed = probedDevices.get(discoveryData.getMac());
+        if (lastProbed != null && now - lastProbed < REPROBE_PERIOD) {
+            return;
+        }
+        probedDevices.put(discoveryData.getMac(), now);
+
+        getProbeExecutor().execute(() -> probeDevice(discoveryData));
+    }
+
+    private synchronized ExecutorService getProbeExecutor() {
+        ThreadPoolExecutor probeExecutor = this.probeExecutor;
+        if (probeExecutor == null) {
+            // Threads are only kept while there are probes to run
+            probeExecutor = new ThreadPoolExecutor(RainMachineBindingConstants.DISCOVERY_THREAD_POOL_SIZE,
+                    RainMachineBindingConstants.DISCOVERY_THREAD_POOL_SIZE, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new NamedThreadFactory("rainmachine-discovery"));
+            probeExecutor.allowCoreThreadTimeOut(true);
+            this.probeExecutor = probeExecutor;
+        }
+        return probeExecutor;
+    }
+
+    /**
+     * Reads the versions from a discovered device to find the model, and reports the device as soon as the probe
+     * completes
+     *
+     * @param discoveryData the device found in the discovery broadcast
+     */
+    private void probeDevice(RainMachineDiscoveryData discoveryData) {
+        @Nullable RainMachineApiVersion version = readVersions(discoveryData.getAddress());
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+
+        ThingUID bridgeUid = new ThingUID(RainMachineBindingConstants.RAINMACHINE_BRIDGE,
+                discoveryData.getMac().replaceAll("[^A-Za-z0-9\\-_]", "").toLowerCase());
+        if (version != null) {
+            hostAddressCache.updateHostAddress(bridgeUid.getId(), discoveryData.getAddress());
+        }
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("host", discoveryData.getAddress());
+        properties.put("mac", discoveryData.getMac());
+        properties.put("name", discoveryData.getName());
+        reportDevice(bridgeUid, version, discoveryData.getName(), properties, "mac");
+    }
+
+    private @Nullable RainMachineApiVersion readVersions(String address) {
+        @Nullable RainMachineCommunicator communicator = null;
+        try {
+            communicator = new RainMachineCommunicator(clientPool, address);
+            return communicator.getVersionsAsync().get(PROBE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (RainMachineException | ExecutionException | TimeoutException e) {
+            logger.debug("RainMachine discovery could not read versions from {}: {}", address, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (communicator != null) {
+                communicator.dispose();
             }
         }
+        return null;
     }
 
-    private List<RainMachineDiscoveryData> updBroadcast() {
+    private void reportDevice(ThingUID bridgeUid, @Nullable RainMachineApiVersion version, String name,
+            Map<String, Object> properties, String representationProperty) {
+        int zones = 16;
+        String model = "";
+
+        String hwVer = version == null ? "" : version.hwVer;
+        try {
+            switch (Integer.parseInt(hwVer)) {
+                case 1:
+                    model = "Touch";
+                    zones = 8;
+                    break;
+                case 2:
+                    model = "Mini-8";
+                    zones = 8;
+                    break;
+                case 3:
+                    model = "HD-12/16";
+                    break;
+                case 5:
+                    model = "Pro-8/16";
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            if (!hwVer.isEmpty()) {
+                logger.debug("RainMachine discovery unknown hardware version {}", hwVer);
+            }
+        }
+
+        DiscoveryResult discoveryResult = DiscoveryResultBuilder.create(bridgeUid)
+                .withLabel("RainMachine " + model + ": " + name).withProperties(properties)
+                .withRepresentationProperty(representationProperty).build();
+        thingDiscovered(discoveryResult);
+
+        for (int zone = 1; zone <= zones; zone++) {
+            ThingUID zoneUid = new ThingUID(RainMachineBindingConstants.RAINMACHINE_ZONE, bridgeUid, "zone" + zone);
+            discoveryResult = DiscoveryResultBuilder.create(zoneUid).withBridge(bridgeUid)
+                    .withLabel("RainMachine " + model + ": " + name + " (Zone " + zone + ")")
+                    .withProperty("uid", zone + 1).withRepresentationProperty("uid").build();
+            thingDiscovered(discoveryResult);
+        }
+    }
+
+    /**
+     * Sends the discovery message and collects the replies
+     *
+     * @param targets the broadcast address, or the hosts to query directly
+     * @param timeout the number of milliseconds to wait for each reply
+     * @param deadline the time, in milliseconds since the epoch, after which no more replies are waited for
+     * @return the valid replies
+     */
+    private List<RainMachineDiscoveryData> sendDiscovery(List<String> targets, int timeout, long deadline) {
         List<RainMachineDiscoveryData> rList = new LinkedList<>();
 
-        // Find the server using UDP broadcast
+        // Find the server using UDP broadcast, or by querying each host
 
         try (DatagramSocket c = new DatagramSocket(BROADCAST_DISCOVERY_PORT_RX)) {
-            c.setSoTimeout(BROADCAST_TIMEOUT);
             c.setBroadcast(true);
 
             byte[] sendData = BROADCAST_DISCOVERY_MESSAGE.getBytes("UTF-8");
 
-            DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length,
-                    InetAddress.getByName("255.255.255.255"), BROADCAST_DISCOVERY_PORT_TX);
-            c.send(sendPacket);
+            for (String target : targets) {
+                DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length,
+                        InetAddress.getByName(target), BROADCAST_DISCOVERY_PORT_TX);
+                c.send(sendPacket);
+            }
 
+            byte[] recvBuf = new byte[2048];
             while (true) {
                 // Wait for a response
-                byte[] recvBuf = new byte[15000];
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return rList;
+                }
                 DatagramPacket receivePacket;
                 try {
+                    c.setSoTimeout((int) Math.min(timeout, remaining));
                     receivePacket = new DatagramPacket(recvBuf, recvBuf.length);
                     c.receive(receivePacket);
                     logger.debug("RainMachine discovery received from {}:{}", receivePacket.getAddress(),
@@ -158,8 +441,8 @@ public class RainMachineDiscoveryService extends AbstractDiscoveryService {
                 }
 
                 // Check if the message is correct
-                RainMachineDiscoveryData message = new RainMachineDiscoveryData(
-                        new String(receivePacket.getData(), "UTF-8").trim());
+                RainMachineDiscoveryData message = RainMachineDiscoveryData
+                        .parse(ByteBuffer.wrap(recvBuf, 0, receivePacket.getLength()));
                 logger.debug("RainMachine discovery received data {}", message);
 
                 if (message.isValid()) {
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.discovery;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineSubnetScanner} sweeps a subnet for hosts that accept connections on the RainMachine API port.
+ * This finds controllers on networks that filter the UDP discovery broadcast. Connections are made asynchronously,
+ * with a bounded number in flight, so that a /24 can be swept in a few seconds.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineSubnetScanner {
+
+    /**
+     * The smallest prefix that will be swept, to avoid sweeping very large networks
+     */
+    public static final int MINIMUM_PREFIX = 20;
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineSubnetScanner.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final int port;
+    private final int connectTimeout;
+    private final int maxInFlight;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a scanner
+     *
+     * @param scheduler the scheduler used to time out connections
+     * @param port the port to connect to
+     * @param connectTimeout the connection timeout in milliseconds
+     * @param maxInFlight the maximum number of connections in progress at once
+     */
+    public RainMachineSubnetScanner(ScheduledExecutorService scheduler, int port, int connectTimeout,
+            int maxInFlight) {
+        this.scheduler = scheduler;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Connects to each address in turn, and calls the callback for each address that accepts the connection. The
+     * method returns once all connections have completed or timed out, or once the deadline has passed.
+     *
+     * @param addresses the addresses to connect to
+     * @param deadline the time, in milliseconds since the epoch, after which no more connections are started or
+     *            waited for
+     * @param callback called, on a channel group thread, for each address that accepts the connection
+     * @return the number of addresses that accepted the connection
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public int scan(List<InetAddress> addresses, long deadline, Consumer<InetAddress> callback)
+            throws InterruptedException {
+        cancelled = false;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger found = new AtomicInteger();
+        long start = System.currentTimeMillis();
+
+        for (InetAddress address : addresses) {
+            if (cancelled || !inFlight.tryAcquire(remaining(deadline), TimeUnit.MILLISECONDS)) {
+                break;
+            }
+            connect(address, inFlight, found, callback);
+        }
+
+        // Wait for the remaining connections to complete
+        if (inFlight.tryAcquire(maxInFlight, remaining(deadline), TimeUnit.MILLISECONDS)) {
+            inFlight.release(maxInFlight);
+        }
+
+        logger.debug("RainMachine subnet scan of {} addresses found {} in {}ms", addresses.size(), found.get(),
+                System.currentTimeMillis() - start);
+        return found.get();
+    }
+
+    /**
+     * Stops a scan in progress. Connections already in progress are left to complete.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void connect(InetAddress address, Semaphore inFlight, AtomicInteger found,
+            Consumer<InetAddress> callback) {
+        AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open();
+        } catch (IOException e) {
+            logger.debug("RainMachine subnet scan could not open channel: {}", e.getMessage());
+            inFlight.release();
+            return;
+        }
+
+        // Closing the channel fails the connection, so the completion handler always releases the permit
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> close(channel), connectTimeout, TimeUnit.MILLISECONDS);
+
+        channel.connect(new InetSocketAddress(address, port), null, new CompletionHandler<Void, @Nullable Void>() {
+            @Override
+            public void completed(@Nullable Void result, @Nullable Void attachment) {
+                timeout.cancel(false);
+                close(channel);
+                inFlight.release();
+
+                logger.trace("RainMachine subnet scan found {}:{}", address.getHostAddress(), port);
+                found.incrementAndGet();
+                callback.accept(address);
+            }
+
+            @Override
+            public void failed(@Nullable Throwable exception, @Nullable Void attachment) {
+                timeout.cancel(false);
+                close(channel);
+                inFlight.release();
+            }
+        });
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    private void close(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more can be done
+        }
+    }
+
+    /**
+     * Gets the host addresses of the local IPv4 subnets. Subnets larger than the given prefix are limited to the
+     * prefix around the local address.
+     *
+     * @param prefix the largest subnet to return, as a prefix length
+     * @return the host addresses, excluding the local addresses
+     */
+    public static List<InetAddress> getLocalSubnetAddresses(int prefix) {
+        Set<InetAddress> addresses = new LinkedHashSet<>();
+        Set<InetAddress> localAddresses = new LinkedHashSet<>();
+
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback() || networkInterface.isPointToPoint()) {
+                    continue;
+                }
+                for (InterfaceAddress interfaceAddress : networkInterface.getInterfaceAddresses()) {
+                    InetAddress address = interfaceAddress.getAddress();
+                    if (!(address instanceof Inet4Address) || !address.isSiteLocalAddress()) {
+                        continue;
+                    }
+                    localAddresses.add(address);
+                    addresses.addAll(getSubnetAddresses(address,
+                            Math.max(interfaceAddress.getNetworkPrefixLength(), prefix)));
+                }
+            }
+        } catch (SocketException e) {
+            LoggerFactory.getLogger(RainMachineSubnetScanner.class)
+                    .debug("RainMachine subnet scan could not list interfaces: {}", e.getMessage());
+        }
+
+        addresses.removeAll(localAddresses);
+        return new ArrayList<>(addresses);
+    }
+
+    /**
+     * Gets the host addresses in a subnet given in CIDR notation, e.g. 192.168.1.0/24
+     *
+     * @param cidr the subnet
+     * @return the host addresses
+     * @throws IllegalArgumentException if the subnet is not a valid IPv4 subnet, or is larger than
+     *             {@link #MINIMUM_PREFIX}
+     */
+    public static List<InetAddress> getSubnetAddresses(String cidr) {
+        int separator = cidr.indexOf('/');
+        if (separator == -1) {
+            throw new IllegalArgumentException("Subnet must be in CIDR notation: " + cidr);
+        }
+
+        InetAddress address;
+        int prefix;
+        try {
+            address = InetAddress.getByName(cidr.substring(0, separator).trim());
+            prefix = Integer.parseInt(cidr.substring(separator + 1).trim());
+        } catch (UnknownHostException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid subnet: " + cidr, e);
+        }
+        if (!(address instanceof Inet4Address) || prefix < MINIMUM_PREFIX || prefix > 32) {
+            throw new IllegalArgumentException("Subnet must be IPv4 with a prefix of at least " + MINIMUM_PREFIX
+                    + ": " + cidr);
+        }
+
+        return getSubnetAddresses(address, prefix);
+    }
+
+    private static List<InetAddress> getSubnetAddresses(InetAddress address, int prefix) {
+        List<InetAddress> addresses = new ArrayList<>();
+
+        byte[] bytes = address.getAddress();
+        int ip = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+        int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+        int network = ip & mask;
+        int broadcast = network | ~mask;
+
+        // The network and broadcast addresses are only hosts in /31 and /32 subnets
+        int first = prefix >= 31 ? network : network + 1;
+        int last = prefix >= 31 ? broadcast : broadcast - 1;
+        for (int host = first; Integer.compareUnsigned(host, last) <= 0; host++) {
+            try {
+                addresses.add(InetAddress.getByAddress(new byte[] { (byte) (host >>> 24), (byte) (host >>> 16),
+                        (byte) (host >>> 8), (byte) host }));
+            } catch (UnknownHostException e) {
+                // Cannot happen for a four byte address
+            }
+            if (host == last) {
+                break;
+            }
+        }
+
+        return addresses;
+    }
+}
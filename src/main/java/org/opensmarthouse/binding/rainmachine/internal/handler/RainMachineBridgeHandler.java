@@ -12,17 +12,28 @@
  */
 package org.opensmarthouse.binding.rainmachine.internal.handler;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.StringType;
 import org.openhab.core.thing.Bridge;
 import org.openhab.core.thing.ChannelUID;
 import org.openhab.core.thing.ThingStatus;
+import org.openhab.core.thing.ThingStatusDetail;
 import org.openhab.core.thing.binding.BaseBridgeHandler;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.RefreshType;
@@ -30,11 +41,22 @@ import org.openhab.core.types.UnDefType;
 import org.opensmarthouse.binding.rainmachine.internal.RainMachineAddressCache;
 import org.opensmarthouse.binding.rainmachine.internal.RainMachineBindingConstants;
 import org.opensmarthouse.binding.rainmachine.internal.RainMachineException;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineHttpClientPool;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineInvalidResponseException;
 import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineApiVersion;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineCircuitBreaker;
 import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineCommunicator;
 import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineDeviceInformation;
 import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineDiagnostics;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineMetrics;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineMixerDay;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineProgramInformation;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineProgramsInformation;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineRateLimiter;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineWateringQueue;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineWateringLogEntry;
 import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineZoneInformation;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineZoneRuntime;
 import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineZonesInformation;
 import org.opensmarthouse.binding.rainmachine.internal.config.RainMachineConfiguration;
 import org.slf4j.Logger;
@@ -56,6 +78,7 @@ public class RainMachineBridgeHandler extends BaseBridgeHandler {
     private final String PROPERTY_SWVERSION = "version_software";
 
     private final String PROPERTY_UPTIME = "uptime";
+    private final String PROPERTY_POLL_OFFSET = "poll_offset";
 
     private final String VERSION_APIVERSION = "apiVer";
     private final String VERSION_HWVERSION = "hwVer";
@@ -63,57 +86,264 @@ public class RainMachineBridgeHandler extends BaseBridgeHandler {
 
     private final String DIAG_UPTIME = "uptime";
 
-    private @Nullable RainMachineCommunicator device = null;
+    private volatile @Nullable RainMachineCommunicator device = null;
     private @NonNullByDefault({}) RainMachineConfiguration config = null;
 
-    private @Nullable ScheduledFuture<?> updateJob = null;
+    private int currentRefresh;
 
-    private Map<Integer, RainMachineZoneHandler> zoneHandlers = new HashMap<>();
+    private Map<Integer, RainMachineZoneHandler> zoneHandlers = new ConcurrentHashMap<>();
+    private Map<Integer, RainMachineProgramHandler> programHandlers = new ConcurrentHashMap<>();
+    private final RainMachineZoneDispatcher zoneDispatcher = new RainMachineZoneDispatcher();
 
     private final RainMachineAddressCache hostAddressCache;
+    private final RainMachineHttpClientPool clientPool;
+    private final RainMachinePollScheduler pollScheduler;
+    private final RainMachineStartupMonitor startupMonitor;
+
+    // Incremented on each initialisation and disposal, so that a handshake that completes late is discarded
+    private int initGeneration = 0;
+
+    private long lastMetricsRequests = 0;
+    private long lastMetricsLatency = 0;
 
     private static final Long MAXIMUM_REFRESH_PERIOD = 3000L;
-    private Long lastZoneUpdate = 0L;
-    private @Nullable RainMachineZonesInformation zonesCache;
+
+    // Long enough for a login, a wait for a free connection and the request itself
+    private static final long POLL_RESPONSE_TIMEOUT = TimeUnit.SECONDS.toNanos(15);
+
+    private static final long WATERING_LOG_REFRESH_PERIOD = TimeUnit.HOURS.toMillis(1);
+    private final RainMachineWateringHistory wateringHistory = new RainMachineWateringHistory();
+    private volatile long lastWateringLogUpdate = 0L;
+    private boolean watering = false;
+
+    private static final long PROGRAM_LIST_REFRESH_PERIOD = TimeUnit.HOURS.toMillis(1);
+    private volatile @Nullable RainMachineProgramsInformation programsCache;
+    private volatile long lastProgramListUpdate = 0L;
+    private Set<Integer> runningPrograms = new HashSet<>();
+
+    private static final int MIXER_PAST_DAYS = 2;
+    private static final int MIXER_FORECAST_DAYS = 6;
+    private static final long MIXER_REFRESH_PERIOD = TimeUnit.HOURS.toMillis(1);
+    private final RainMachineMixerCache mixerCache = new RainMachineMixerCache(MIXER_PAST_DAYS, MIXER_FORECAST_DAYS);
+    private volatile long lastMixerUpdate = 0L;
+
+    private static final long ZONE_PROPERTIES_REFRESH_PERIOD = TimeUnit.MINUTES.toMillis(15);
+    private static final int WATERING_QUEUE_FAILURE_LIMIT = 3;
+    private volatile long lastZoneUpdate = 0L;
+    private volatile long lastZonePropertiesUpdate = 0L;
+    private volatile @Nullable RainMachineZonesInformation zonesCache;
+    private volatile boolean wateringQueueSupported = true;
+    private volatile int wateringQueueFailures = 0;
+
+    private static final long COMMAND_WINDOW = 250L;
+    private final RainMachineCommandPipeline commandPipeline;
 
     /*
      * Constructor class. Only call the parent constructor
      */
-    public RainMachineBridgeHandler(final Bridge bridge, final RainMachineAddressCache hostAddressCache) {
+    public RainMachineBridgeHandler(final Bridge bridge, final RainMachineAddressCache hostAddressCache,
+            final RainMachineHttpClientPool clientPool, final RainMachinePollScheduler pollScheduler,
+            final RainMachineStartupMonitor startupMonitor) {
         super(bridge);
         this.hostAddressCache = hostAddressCache;
-        this.updateJob = null;
+        this.clientPool = clientPool;
+        this.pollScheduler = pollScheduler;
+        this.startupMonitor = startupMonitor;
+        commandPipeline = new RainMachineCommandPipeline(() -> device, this::refreshZones, scheduler,
+                COMMAND_WINDOW);
         updateStatus(ThingStatus.OFFLINE);
     }
 
     @Override
     public void initialize() {
         config = getConfigAs(RainMachineConfiguration.class);
+        disposeDevice();
+        zoneDispatcher.invalidateAll();
+
+        // The handshake is completed in the background so that an unreachable controller does not hold up startup
+        updateStatus(ThingStatus.UNKNOWN);
+        startupMonitor.initializing(getThing().getUID());
+
+        int generation;
+        synchronized (this) {
+            generation = ++initGeneration;
+        }
+
+        String apiVersion = getThing().getProperties().get(PROPERTY_APIVERSION);
+        if (apiVersion != null && !apiVersion.isEmpty()) {
+            // The controller has been seen before, so polling can start without waiting for the handshake
+            logger.debug("RainMaker using cached API version {} while connecting", apiVersion);
+            createDevice();
+        }
+
+        long startTime = System.nanoTime();
+        connectAsync().whenCompleteAsync(
+                (device, exception) -> completeInitialization(generation, device, exception, startTime), scheduler);
+
+        startUpdateJob();
+    }
+
+    private synchronized void completeInitialization(int generation, @Nullable RainMachineCommunicator device,
+            @Nullable Throwable exception, long startTime) {
+        if (generation != initGeneration) {
+            // The handler was disposed or reinitialised while connecting
+            if (device != null) {
+                device.dispose();
+            }
+            return;
+        }
+
+        logger.debug("RainMaker handshake completed in {}ms",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        if (exception != null || device == null) {
+            Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+            logger.debug("RainMaker exception initialising communicator and getting versions", cause);
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                    cause == null ? null : cause.getMessage());
+            // Keep polling the configured host so that the bridge comes online once it answers
+            if (this.device == null) {
+                createDevice();
+            }
+            return;
+        }
+
+        RainMachineCommunicator previous = this.device;
+        attachDevice(device);
+        if (previous != null) {
+            previous.dispose();
+        }
+
+        updateOnline();
+        // Poll straight away, within the limit on concurrent polls
+        pollScheduler.pollNow(getThing().getUID());
+    }
 
+    private void createDevice() {
         try {
-            device = new RainMachineCommunicator(config.host, config.password);
-            RainMachineApiVersion versions = device.getVersions();
-            getThing().setProperty(PROPERTY_APIVERSION, versions.apiVer);
-            getThing().setProperty(PROPERTY_HWVERSION, versions.hwVer);
-            getThing().setProperty(PROPERTY_SWVERSION, versions.swVer);
-            updateStatus(ThingStatus.ONLINE);
+            attachDevice(new RainMachineCommunicator(clientPool, config.host, config.password, createRateLimiter()));
         } catch (RainMachineException e) {
-            logger.debug("RainMaker exception initialising communicator and getting versions", e);
-            updateStatus(ThingStatus.OFFLINE);
+            logger.debug("RainMaker exception initialising communicator", e);
+        }
+    }
+
+    private @Nullable RainMachineRateLimiter createRateLimiter() {
+        if (config.rateLimit <= 0) {
+            return null;
         }
+        return new RainMachineRateLimiter(config.rateLimit, config.rateBurst, config.commandBurst);
+    }
 
-        startUpdateJob();
+    private void attachDevice(RainMachineCommunicator device) {
+        // The new communicator may be for a different controller, so its zones and queue support are not known
+        zonesCache = null;
+        wateringQueueSupported = true;
+        wateringQueueFailures = 0;
+        device.getCircuitBreaker().setStateListener(state -> circuitBreakerStateChanged(device, state));
+        this.device = device;
+    }
+
+    /**
+     * Keeps the bridge status in line with the circuit breaker, so that the bridge goes offline as soon as the
+     * controller stops answering, and back online as soon as it answers again
+     */
+    private void circuitBreakerStateChanged(RainMachineCommunicator device, RainMachineCircuitBreaker.State state) {
+        if (device != this.device) {
+            return;
+        }
+
+        switch (state) {
+            case OPEN:
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                        "Controller not answering, retrying in "
+                                + TimeUnit.MILLISECONDS.toSeconds(device.getCircuitBreaker().getRetryDelay()) + "s");
+                break;
+            case CLOSED:
+                updateOnline();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Connects to the controller at the configured host. If the configured host does not answer, the last known
+     * address of the controller is tried, so that a controller that has changed its address is still found.
+     *
+     * @return a future completing with the communicator for the host that answered, or exceptionally if neither host
+     *         answers
+     */
+    private CompletableFuture<RainMachineCommunicator> connectAsync() {
+        String id = getThing().getUID().getId();
+        String host = config.host;
+        return connectAsync(host).handle((device, exception) -> {
+            if (exception == null) {
+                hostAddressCache.updateHostAddress(id, host);
+                return CompletableFuture.completedFuture(device);
+            }
+
+            String lastKnownHost = hostAddressCache.getLastKnownHostAddress(id);
+            if (lastKnownHost.isEmpty() || lastKnownHost.equals(host)) {
+                return CompletableFuture.<RainMachineCommunicator> failedFuture(exception);
+            }
+
+            logger.debug("RainMaker {} not answering, trying last known address {}", host, lastKnownHost);
+            return connectAsync(lastKnownHost).thenApply(fallback -> {
+                logger.info("RainMachine {} found at last known address {} rather than {}", id, lastKnownHost, host);
+                hostAddressCache.updateHostAddress(id, lastKnownHost);
+                return fallback;
+            });
+        }).thenCompose(future -> future);
+    }
+
+    private CompletableFuture<RainMachineCommunicator> connectAsync(String host) {
+        RainMachineCommunicator device;
+        try {
+            device = new RainMachineCommunicator(clientPool, host, config.password, createRateLimiter());
+        } catch (RainMachineException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return device.getVersionsAsync().handle((versions, exception) -> {
+            if (exception != null) {
+                device.dispose();
+                throw exception instanceof CompletionException ? (CompletionException) exception
+                        : new CompletionException(exception);
+            }
+            updateVersionProperties(versions);
+            return device;
+        });
+    }
+
+    private void updateVersionProperties(RainMachineApiVersion versions) {
+        getThing().setProperty(PROPERTY_APIVERSION, versions.apiVer);
+        getThing().setProperty(PROPERTY_HWVERSION, versions.hwVer);
+        getThing().setProperty(PROPERTY_SWVERSION, versions.swVer);
     }
 
     @Override
     public void dispose() {
+        synchronized (this) {
+            initGeneration++;
+        }
         stopUpdateJob();
+        commandPipeline.dispose();
+        disposeDevice();
+        startupMonitor.removed(getThing().getUID());
+    }
+
+    private void disposeDevice() {
+        RainMachineCommunicator device = this.device;
+        this.device = null;
+        if (device != null) {
+            device.dispose();
+        }
     }
 
     @Override
     public void handleCommand(ChannelUID channelUID, Command command) {
         if (command == RefreshType.REFRESH) {
-            // scheduler.execute(this::updateBridge);
+            pollScheduler.pollNow(getThing().getUID());
         }
     }
 
@@ -127,60 +357,646 @@ public class RainMachineBridgeHandler extends BaseBridgeHandler {
         logger.debug("Zone {}: Callback registered", zone);
 
         zoneHandlers.put(zone, zoneHandler);
-        startUpdateJob();
+        refreshZone(zone);
+
+        RainMachineWateringLogEntry lastRun = wateringHistory.getLatest(zone);
+        if (lastRun != null) {
+            zoneHandler.updateZoneLastRun(lastRun.startTime, lastRun.realDuration);
+        }
     }
 
-    private void startUpdateJob() {
-        stopUpdateJob();
+    /**
+     * Registers a program for status updates
+     *
+     * @param program the program ID
+     * @param programHandler the handler that will receive the status updates
+     */
+    protected void registerProgramStatusCallback(int program, RainMachineProgramHandler programHandler) {
+        logger.debug("Program {}: Callback registered", program);
+
+        programHandlers.put(program, programHandler);
+        RainMachineProgramsInformation programsCache = this.programsCache;
+        if (programsCache == null) {
+            refreshPrograms(true);
+        } else {
+            dispatchProgram(programsCache, program, programHandler);
+        }
+    }
+
+    protected void unregisterProgramStatusCallback(int program, RainMachineProgramHandler programHandler) {
+        programHandlers.remove(program, programHandler);
+    }
+
+    private synchronized void startUpdateJob() {
         logger.debug("Starting RainMachine Update Job");
-        this.updateJob = scheduler.scheduleWithFixedDelay(this::updateBridge, 0, config.refresh, TimeUnit.SECONDS);
+        currentRefresh = config.refresh;
+        pollScheduler.register(getThing().getUID(), config.refresh, this::poll);
+        getThing().setProperty(PROPERTY_POLL_OFFSET,
+                pollScheduler.getPollOffset(getThing().getUID()) + "s of " + config.refresh + "s");
 
         logger.debug("RainMachine sucessfully initialized. Starting status poll at: {}", config.refresh);
     }
 
     private void stopUpdateJob() {
-        final ScheduledFuture<?> updateJob = this.updateJob;
-        if (updateJob != null && !updateJob.isDone()) {
-            logger.debug("Stopping RainMachine Update Job");
-            updateJob.cancel(false);
+        logger.debug("Stopping RainMachine Update Job");
+        pollScheduler.unregister(getThing().getUID());
+    }
+
+    private int poll() {
+        boolean answered = updateBridge();
+        updateMetrics();
+        // The slower reads would only be rejected while the controller is not answering, so they wait for a later poll
+        if (answered) {
+            if (System.currentTimeMillis() - lastWateringLogUpdate > WATERING_LOG_REFRESH_PERIOD) {
+                refreshWateringLog();
+            }
+            if (System.currentTimeMillis() - lastMixerUpdate > MIXER_REFRESH_PERIOD) {
+                refreshMixer();
+            }
+            refreshPrograms(false);
+        }
+
+        synchronized (this) {
+            int period = getNextRefreshPeriod(zonesCache);
+            RainMachineCommunicator device = this.device;
+            if (device != null) {
+                // Don't poll again until the circuit breaker will let the next request through
+                long retryDelay = device.getCircuitBreaker().getRetryDelay();
+                period = Math.max(period, (int) TimeUnit.MILLISECONDS.toSeconds(retryDelay + 999));
+            }
+            logger.debug("RainMaker next poll in {}s", period);
+            return period;
+        }
+    }
+
+    /**
+     * Updates the API metrics channels with the mean latency of the requests made since the last poll, and the total
+     * number of errors
+     */
+    private synchronized void updateMetrics() {
+        RainMachineCommunicator device = this.device;
+        if (device == null) {
+            return;
+        }
+
+        RainMachineMetrics metrics = device.getMetrics();
+        if (logger.isDebugEnabled()) {
+            metrics.getEndpoints().forEach(
+                    (endpoint, endpointMetrics) -> logger.debug("RainMaker {}: {}", endpoint, endpointMetrics));
+            if (metrics.getCommands() != 0) {
+                logger.debug("RainMaker commands={}, latency={}ms, over {}ms={}, failed={}", metrics.getCommands(),
+                        String.format("%.1f", metrics.getMeanCommandLatency()),
+                        RainMachineMetrics.COMMAND_LATENCY_TARGET, metrics.getCommandsOverTarget(),
+                        metrics.getCommandsFailed());
+            }
+        }
+
+        long requests = metrics.getRequests();
+        long latency = metrics.getTotalLatency();
+        // The counters restart when the communicator is replaced
+        if (requests < lastMetricsRequests) {
+            lastMetricsRequests = 0;
+            lastMetricsLatency = 0;
+        }
+        if (requests > lastMetricsRequests && isLinked(RainMachineBindingConstants.CHANNEL_ID_API_LATENCY)) {
+            updateState(RainMachineBindingConstants.CHANNEL_ID_API_LATENCY,
+                    new DecimalType((latency - lastMetricsLatency) / (requests - lastMetricsRequests)));
         }
+        lastMetricsRequests = requests;
+        lastMetricsLatency = latency;
 
-        this.updateJob = null;
+        if (isLinked(RainMachineBindingConstants.CHANNEL_ID_API_ERRORS)) {
+            updateState(RainMachineBindingConstants.CHANNEL_ID_API_ERRORS, new DecimalType(metrics.getErrors()));
+        }
+        if (isLinked(RainMachineBindingConstants.CHANNEL_ID_API_THROTTLED)) {
+            updateState(RainMachineBindingConstants.CHANNEL_ID_API_THROTTLED,
+                    new DecimalType(metrics.getThrottled()));
+        }
     }
 
-    private synchronized boolean updateBridge() {
+    /**
+     * Works out when the bridge should next be polled. While any zone is running or queued, the bridge is polled at
+     * the active refresh rate so that zone state can be followed. Once all zones are idle, the period doubles on each
+     * poll until it reaches the normal refresh period.
+     *
+     * @param zones the latest zone information
+     * @return the number of seconds until the next poll
+     */
+    private int getNextRefreshPeriod(@Nullable RainMachineZonesInformation zones) {
+        int slowRefresh = Math.max(1, config.refresh);
+        int fastRefresh = Math.max(1, Math.min(config.refreshActive, slowRefresh));
+
+        boolean watering = false;
+        int remaining = Integer.MAX_VALUE;
+        if (zones != null && zones.zones != null) {
+            for (RainMachineZoneInformation zone : zones.zones) {
+                if (zone.isWatering()) {
+                    watering = true;
+                }
+                if (zone.state == RainMachineZoneInformation.STATE_RUNNING && zone.remaining > 0) {
+                    remaining = Math.min(remaining, zone.remaining);
+                }
+            }
+        }
+
+        if (watering) {
+            currentRefresh = fastRefresh;
+            // Poll just after a running zone finishes rather than waiting for the next period
+            if (remaining < fastRefresh) {
+                return remaining + 1;
+            }
+        } else {
+            currentRefresh = Math.min(currentRefresh * 2, slowRefresh);
+        }
+
+        return currentRefresh;
+    }
+
+    /**
+     * Polls the bridge. This is only called from the poll job, so it does not hold the handler lock while it waits
+     * for the responses, which would hold up zone updates following a command.
+     */
+    private boolean updateBridge() {
         logger.debug("RainMaker updating bridge");
-        try {
-            RainMachineDiagnostics diagnostics = device.getDiagnostics();
-            getThing().setProperty(PROPERTY_UPTIME, diagnostics.uptime);
+        RainMachineCommunicator device = this.device;
+        if (device == null) {
+            return false;
+        }
+        if (device.getCircuitBreaker().getRetryDelay() > 0) {
+            logger.debug("RainMaker controller not answering, skipping update");
+            return false;
+        }
+
+        // Fire all requests together so the poll takes as long as the slowest request rather than the sum
+        CompletableFuture<RainMachineDiagnostics> diagnosticsFuture = device.getDiagnosticsAsync();
+        CompletableFuture<RainMachineDeviceInformation> deviceInfoFuture = device.getDeviceInfoAsync();
+        CompletableFuture<RainMachineZonesInformation> zonesFuture = readZones(device);
+        long deadline = System.nanoTime() + POLL_RESPONSE_TIMEOUT;
 
-            RainMachineDeviceInformation deviceInfo = device.getDeviceInfo();
+        boolean answered = false;
+
+        RainMachineDiagnostics diagnostics = awaitResponse(diagnosticsFuture, "diagnostics", deadline);
+        if (diagnostics != null) {
+            answered = true;
+            getThing().setProperty(PROPERTY_UPTIME, diagnostics.uptime);
+        }
 
+        RainMachineDeviceInformation deviceInfo = awaitResponse(deviceInfoFuture, "device information", deadline);
+        if (deviceInfo != null) {
+            answered = true;
             if (deviceInfo.rainSensorRainStart == null) {
                 updateState(RainMachineBindingConstants.CHANNEL_ID_LASTRAIN, UnDefType.UNDEF);
             } else {
                 updateState(RainMachineBindingConstants.CHANNEL_ID_LASTRAIN,
                         new StringType(deviceInfo.rainSensorRainStart.toString()));
             }
+        }
+
+        RainMachineZonesInformation zones = awaitResponse(zonesFuture, "zones", deadline);
+        if (zones != null) {
+            answered = true;
+            updateZones(zones);
+        }
 
-            if (zonesCache == null || System.currentTimeMillis() - lastZoneUpdate > MAXIMUM_REFRESH_PERIOD) {
-                zonesCache = device.getZones();
+        // If nothing was answered, the circuit breaker sets the bridge offline once the failures persist
+        if (answered) {
+            updateOnline();
+        }
+
+        return answered;
+    }
+
+    /**
+     * Refreshes a single zone. The zone information is taken from the cache if it is recent, and otherwise requested
+     * from the controller. Concurrent requests share the same request to the controller, so a refresh of many zones
+     * at once only results in a single request.
+     *
+     * @param uid the zone ID
+     */
+    protected void refreshZone(int uid) {
+        RainMachineCommunicator device = this.device;
+        if (device == null) {
+            return;
+        }
+
+        zoneDispatcher.invalidate(uid);
+
+        // Dispatch on the scheduler so that the HTTP client thread completing the request is never blocked
+        readZones(device).whenCompleteAsync((zones, exception) -> {
+            if (exception != null) {
+                logger.debug("Zone {}: RainMaker exception refreshing zone", uid, exception);
+            } else {
+                updateZones(zones);
+            }
+        }, scheduler);
+    }
+
+    /**
+     * Reads the new entries of the watering log, and updates the last run of each zone that has watered since the log
+     * was last read. Only the days from the history's cursor onwards are requested.
+     */
+    private void refreshWateringLog() {
+        RainMachineCommunicator device = this.device;
+        if (device == null) {
+            return;
+        }
+
+        lastWateringLogUpdate = System.currentTimeMillis();
+        LocalDate today = LocalDate.now();
+        device.getWateringLogAsync(wateringHistory.getCursor(today), wateringHistory.getDays(today))
+                .whenCompleteAsync((log, exception) -> {
+                    if (exception != null) {
+                        logger.debug("RainMaker exception getting watering log", exception);
+                        Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+                        // A response that cannot be used will fail again, but after a timeout or while the
+                        // controller is not answering the same days are read again on a later poll
+                        if (cause instanceof RainMachineInvalidResponseException) {
+                            wateringHistory.skip(today);
+                        }
+                        return;
+                    }
+
+                    List<RainMachineWateringLogEntry> lastRuns = wateringHistory.add(log.entries, today);
+                    logger.debug("RainMaker watering log read {} cycles, {} zones updated", log.entries.size(),
+                            lastRuns.size());
+                    for (RainMachineWateringLogEntry lastRun : lastRuns) {
+                        RainMachineZoneHandler zoneHandler = zoneHandlers.get(lastRun.zoneUid);
+                        if (zoneHandler != null) {
+                            zoneHandler.updateZoneLastRun(lastRun.startTime, lastRun.realDuration);
+                        }
+                    }
+                }, scheduler);
+    }
+
+    /**
+     * Starts watering a zone. Commands are collected for a short time and sent to the controller in one batch.
+     *
+     * @param uid the zone ID
+     * @param time the watering time in seconds
+     * @return a future that completes when the controller has accepted the command
+     */
+    protected CompletableFuture<Void> startZone(int uid, int time) {
+        return commandPipeline.start(uid, time);
+    }
+
+    /**
+     * Stops watering a zone. Commands are collected for a short time and sent to the controller in one batch.
+     *
+     * @param uid the zone ID
+     * @return a future that completes when the controller has accepted the command
+     */
+    protected CompletableFuture<Void> stopZone(int uid) {
+        return commandPipeline.stop(uid);
+    }
+
+    /**
+     * Reads the runtime state of all zones from the controller, so that the result of a batch of commands is shown
+     * straight away
+     */
+    private void refreshZones() {
+        RainMachineCommunicator device = this.device;
+        RainMachineZonesInformation zonesCache = this.zonesCache;
+        if (device == null) {
+            return;
+        }
+
+        CompletableFuture<RainMachineZonesInformation> zonesFuture = zonesCache == null ? readZoneProperties(device)
+                : readZoneRuntime(device, zonesCache);
+        zonesFuture.whenCompleteAsync((zones, exception) -> {
+            if (exception != null) {
+                logger.debug("RainMaker exception refreshing zones", exception);
+            } else {
+                updateZones(zones);
+            }
+        }, scheduler);
+    }
+
+    /**
+     * Reads the zones. The zone data is in two tiers. The zone properties, such as the name and whether the zone is
+     * active, change rarely, so the full zone list is only read when the cache is older than
+     * {@link #ZONE_PROPERTIES_REFRESH_PERIOD}. The runtime state of the zones is read from the watering queue, which
+     * only holds the zones that are running or queued, so the poll grows with the zones that are watering rather than
+     * with the number of zones. If the zones have been read in the last {@link #MAXIMUM_REFRESH_PERIOD}, the cache is
+     * returned.
+     *
+     * @param device the communicator for the controller
+     * @return a future that completes with the zones
+     */
+    private CompletableFuture<RainMachineZonesInformation> readZones(RainMachineCommunicator device) {
+        RainMachineZonesInformation zonesCache = this.zonesCache;
+        long now = System.currentTimeMillis();
+        if (zonesCache != null && now - lastZoneUpdate <= MAXIMUM_REFRESH_PERIOD) {
+            return CompletableFuture.completedFuture(zonesCache);
+        }
+        if (zonesCache == null || !wateringQueueSupported
+                || now - lastZonePropertiesUpdate > ZONE_PROPERTIES_REFRESH_PERIOD) {
+            return readZoneProperties(device);
+        }
+        return readZoneRuntime(device, zonesCache);
+    }
+
+    private CompletableFuture<RainMachineZonesInformation> readZoneProperties(RainMachineCommunicator device) {
+        // Cached on the scheduler so that the HTTP client thread never waits for the handler lock
+        return device.getZonesAsync().thenApplyAsync(zones -> {
+            synchronized (this) {
+                zonesCache = zones;
                 lastZoneUpdate = System.currentTimeMillis();
+                lastZonePropertiesUpdate = lastZoneUpdate;
+            }
+            return zones;
+        }, scheduler);
+    }
+
+    /**
+     * Reads the watering queue and applies it to the cached zones. The full zone list is read instead if the queue
+     * holds a zone that is not in the cache, or if the queue could not be read. If the queue keeps failing while the
+     * full zone list can be read, the controller is assumed not to support the queue, and only the full zone list is
+     * used from then on.
+     */
+    private CompletableFuture<RainMachineZonesInformation> readZoneRuntime(RainMachineCommunicator device,
+            RainMachineZonesInformation zonesCache) {
+        // Applied on the scheduler so that the HTTP client thread never waits for the handler lock
+        return device.getWateringQueueAsync().handleAsync((queue, exception) -> {
+            RainMachineZonesInformation updated = exception == null ? applyWateringQueue(zonesCache, queue) : null;
+            if (updated != null) {
+                wateringQueueFailures = 0;
+                return CompletableFuture.completedFuture(updated);
+            }
+            if (exception == null) {
+                logger.debug("RainMaker watering queue holds an unknown zone, reading zone properties");
+                return readZoneProperties(device);
             }
 
-            for (RainMachineZoneInformation zone : zonesCache.zones) {
-                RainMachineZoneHandler zoneHandler = zoneHandlers.get(zone.uid);
-                if (zoneHandler != null) {
-                    zoneHandler.updateZoneInformation(zone);
+            logger.debug("RainMaker exception reading watering queue, reading zone properties", exception);
+            return readZoneProperties(device).thenApply(zones -> {
+                if (++wateringQueueFailures >= WATERING_QUEUE_FAILURE_LIMIT) {
+                    logger.debug("RainMaker watering queue not supported, reading full zone list on each poll");
+                    wateringQueueSupported = false;
                 }
+                return zones;
+            });
+        }, scheduler).thenCompose(future -> future);
+    }
+
+    /**
+     * Applies the watering queue to copies of the cached zones, and caches the copies. The cached records are never
+     * changed, so a zone list that is being read by another thread stays consistent.
+     *
+     * @return the updated zones, or null if the queue holds a zone that is not in the cache
+     */
+    private synchronized @Nullable RainMachineZonesInformation applyWateringQueue(
+            RainMachineZonesInformation zonesCache, RainMachineWateringQueue queue) {
+        if (zonesCache.zones == null) {
+            return zonesCache;
+        }
+
+        Map<Integer, RainMachineZoneRuntime> runtimes = new HashMap<>();
+        for (RainMachineZoneRuntime runtime : queue.queue) {
+            // A zone can be in the queue more than once, in which case the running entry is the one to show
+            if (runtime.running || !runtimes.containsKey(runtime.zid)) {
+                runtimes.put(runtime.zid, runtime);
+            }
+        }
+        for (Integer uid : runtimes.keySet()) {
+            if (zonesCache.zones.stream().noneMatch(zone -> zone.uid == uid)) {
+                return null;
             }
+        }
 
-        } catch (RainMachineException e) {
-            logger.debug("RainMaker exception getting diagnostics", e);
+        List<RainMachineZoneInformation> zones = new ArrayList<>(zonesCache.zones.size());
+        for (RainMachineZoneInformation zone : zonesCache.zones) {
+            RainMachineZoneInformation copy = zone.copy();
+            copy.applyRuntime(runtimes.get(zone.uid));
+            zones.add(copy);
+        }
+        RainMachineZonesInformation updated = new RainMachineZonesInformation();
+        updated.zones = zones;
+        // Only replace the cache if it has not been replaced while the queue was being read
+        if (this.zonesCache == zonesCache) {
+            this.zonesCache = updated;
         }
+        lastZoneUpdate = System.currentTimeMillis();
+        return updated;
+    }
 
+    /**
+     * Refreshes the programs. The full program list is only read when it is older than
+     * {@link #PROGRAM_LIST_REFRESH_PERIOD}, or when the running status shows that it has changed. Otherwise only the
+     * running status, which is much smaller, is read. Nothing is read if there are no program things.
+     *
+     * @param readList true to read the full program list
+     */
+    protected void refreshPrograms(boolean readList) {
+        RainMachineCommunicator device = this.device;
+        if (device == null || programHandlers.isEmpty()) {
+            return;
+        }
+
+        if (readList || programsCache == null
+                || System.currentTimeMillis() - lastProgramListUpdate > PROGRAM_LIST_REFRESH_PERIOD) {
+            device.getProgramsAsync().whenCompleteAsync((programs, exception) -> {
+                if (exception != null) {
+                    logger.debug("RainMaker exception getting programs", exception);
+                } else {
+                    updatePrograms(programs);
+                }
+            }, scheduler);
+        } else {
+            device.getRunningProgramsAsync().whenCompleteAsync((programs, exception) -> {
+                if (exception != null) {
+                    logger.debug("RainMaker exception getting running programs", exception);
+                } else {
+                    updateRunningPrograms(programs);
+                }
+            }, scheduler);
+        }
+    }
+
+    /**
+     * Reads the program list and sends the program to its handler. The program is sent even if the list has not
+     * changed since it was last read, so that a refresh always updates the channels.
+     *
+     * @param uid the program ID
+     */
+    protected void refreshProgram(int uid) {
+        RainMachineCommunicator device = this.device;
+        RainMachineProgramHandler programHandler = programHandlers.get(uid);
+        if (device == null || programHandler == null) {
+            return;
+        }
+
+        device.getProgramsAsync().whenCompleteAsync((programs, exception) -> {
+            if (exception != null) {
+                logger.debug("Program {}: RainMaker exception refreshing program", uid, exception);
+                return;
+            }
+            updatePrograms(programs);
+            dispatchProgram(programs, uid, programHandler);
+        }, scheduler);
+    }
+
+    private synchronized void updatePrograms(RainMachineProgramsInformation programs) {
+        lastProgramListUpdate = System.currentTimeMillis();
+
+        RainMachineProgramsInformation programsCache = this.programsCache;
+        if (programsCache != null && programsCache.fingerprint == programs.fingerprint) {
+            logger.debug("RainMaker program list unchanged");
+            return;
+        }
+        this.programsCache = programs;
+
+        runningPrograms.clear();
+        for (RainMachineProgramInformation program : programs.programs) {
+            if (program.isRunning()) {
+                runningPrograms.add(program.uid);
+            }
+        }
+
+        logger.debug("RainMaker program list updated with {} programs", programs.programs.size());
+        programHandlers.forEach((uid, programHandler) -> dispatchProgram(programs, uid, programHandler));
+    }
+
+    private synchronized void updateRunningPrograms(RainMachineProgramsInformation running) {
+        RainMachineProgramsInformation programsCache = this.programsCache;
+        if (programsCache == null) {
+            return;
+        }
+
+        Map<Integer, Integer> statuses = new HashMap<>();
+        for (RainMachineProgramInformation program : running.programs) {
+            statuses.put(program.uid, program.status == RainMachineProgramInformation.STATUS_IDLE
+                    ? RainMachineProgramInformation.STATUS_RUNNING
+                    : program.status);
+        }
+
+        // A program that is not in the list, or has just finished and so has a new next run, means the list changed
+        boolean listChanged = false;
+        for (Integer uid : statuses.keySet()) {
+            listChanged |= programsCache.programs.stream().noneMatch(program -> program.uid == uid);
+        }
+        for (Integer uid : runningPrograms) {
+            listChanged |= !statuses.containsKey(uid);
+        }
+        runningPrograms = new HashSet<>(statuses.keySet());
+
+        programHandlers.forEach((uid, programHandler) -> programHandler
+                .updateProgramStatus(statuses.getOrDefault(uid, RainMachineProgramInformation.STATUS_IDLE)));
+
+        if (listChanged) {
+            refreshPrograms(true);
+        }
+    }
+
+    private void dispatchProgram(RainMachineProgramsInformation programs, int uid,
+            RainMachineProgramHandler programHandler) {
+        for (RainMachineProgramInformation program : programs.programs) {
+            if (program.uid == uid) {
+                programHandler.updateProgram(program);
+                return;
+            }
+        }
+        programHandler.updateProgramGone();
+    }
+
+    /**
+     * Reads the mixer data for the days that may have changed, and updates the weather channels. Days that have ended
+     * are held in the cache and not read again.
+     */
+    private void refreshMixer() {
+        RainMachineCommunicator device = this.device;
+        if (device == null) {
+            return;
+        }
+
+        lastMixerUpdate = System.currentTimeMillis();
+        LocalDate today = LocalDate.now();
+        device.getMixerAsync(mixerCache.getFirstDayToRead(today), mixerCache.getDaysToRead(today))
+                .whenCompleteAsync((mixerData, exception) -> {
+                    if (exception != null) {
+                        logger.debug("RainMaker exception getting mixer data", exception);
+                        return;
+                    }
+
+                    logger.debug("RainMaker mixer read {} days", mixerData.days.size());
+                    mixerCache.put(mixerData.days, today);
+                    updateMixerChannels(today);
+                }, scheduler);
+    }
+
+    private void updateMixerChannels(LocalDate today) {
+        RainMachineMixerDay day = mixerCache.get(today);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_TEMPERATURE, day,
+                RainMachineMixerDay.FIELD_TEMPERATURE);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_MIN_TEMPERATURE, day,
+                RainMachineMixerDay.FIELD_MIN_TEMPERATURE);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_MAX_TEMPERATURE, day,
+                RainMachineMixerDay.FIELD_MAX_TEMPERATURE);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_HUMIDITY, day,
+                RainMachineMixerDay.FIELD_HUMIDITY);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_WIND, day, RainMachineMixerDay.FIELD_WIND);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_QPF, day, RainMachineMixerDay.FIELD_QPF);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_ET0, day, RainMachineMixerDay.FIELD_ET0);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_QPF_TOMORROW,
+                mixerCache.get(today.plusDays(1)), RainMachineMixerDay.FIELD_QPF);
+        updateMixerChannel(RainMachineBindingConstants.CHANNEL_ID_MIXER_RAIN_YESTERDAY,
+                mixerCache.get(today.minusDays(1)), RainMachineMixerDay.FIELD_RAIN);
+    }
+
+    /**
+     * Updates a weather channel. The field is only parsed if the channel is linked.
+     */
+    private void updateMixerChannel(String channelId, @Nullable RainMachineMixerDay day, String field) {
+        if (!isLinked(channelId)) {
+            return;
+        }
+        Double value = day == null ? null : day.getDouble(field);
+        updateState(channelId, value == null ? UnDefType.UNDEF : new DecimalType(value));
+    }
+
+    private synchronized void updateZones(RainMachineZonesInformation zones) {
+        if (zones.zones == null) {
+            return;
+        }
+
+        boolean watering = false;
+        for (RainMachineZoneInformation zone : zones.zones) {
+            watering |= zone.isWatering();
+            RainMachineZoneHandler zoneHandler = zoneHandlers.get(zone.uid);
+            if (zoneHandler != null) {
+                zoneDispatcher.dispatch(zone, zoneHandler);
+            }
+        }
+
+        // Read the log as soon as watering finishes, so the last run of each zone is shown straight away
+        if (this.watering && !watering) {
+            refreshWateringLog();
+        }
+        this.watering = watering;
+        logger.debug("RainMaker zone updates dispatched {}, suppressed {}", zoneDispatcher.getDispatchedUpdates(),
+                zoneDispatcher.getSuppressedUpdates());
+    }
+
+    private void updateOnline() {
         updateStatus(ThingStatus.ONLINE);
+        startupMonitor.online(getThing().getUID());
+    }
 
-        return true;
+    /**
+     * Waits for a poll response. The wait is bounded so that a request that never completes cannot hold a poll thread
+     * and a poll permit for ever.
+     *
+     * @param deadline the {@link System#nanoTime()} by which all responses of the poll are expected
+     */
+    private <T> @Nullable T awaitResponse(CompletableFuture<T> future, String request, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            logger.debug("RainMaker exception getting {}", request, e.getCause());
+        } catch (TimeoutException e) {
+            logger.debug("RainMaker timed out waiting for {}", request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
     }
 }
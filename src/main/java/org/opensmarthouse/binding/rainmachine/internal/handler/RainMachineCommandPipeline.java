@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.handler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineException;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineCommunicator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineCommandPipeline} collects the zone commands for a controller that arrive within a short window
+ * and sends them as one batch. Only the last command for each zone in a window is sent, so duplicate and
+ * contradictory commands from a scene are dropped. The commands in a batch are sent one at a time, in the order
+ * requested, each once the controller has answered the one before, so a stop can never overtake the start that
+ * follows it. Zones are always stopped one by one, as the controller's stop all command would also cancel running
+ * programs. Each command completes its own future, so each
+ * zone learns whether its command worked.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineCommandPipeline {
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineCommandPipeline.class);
+
+    private final Supplier<@Nullable RainMachineCommunicator> device;
+    private final Runnable batchComplete;
+    private final ScheduledExecutorService scheduler;
+    private final long window;
+
+    private final Map<Integer, ZoneCommand> pending = new LinkedHashMap<>();
+    private @Nullable ScheduledFuture<?> flushJob;
+    private CompletableFuture<Void> lastBatch = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param device supplies the communicator for the controller when a batch is sent
+     * @param batchComplete called when all commands in a batch have completed
+     * @param scheduler the scheduler used to send the batches
+     * @param window the time in milliseconds to collect commands before sending them
+     */
+    public RainMachineCommandPipeline(Supplier<@Nullable RainMachineCommunicator> device, Runnable batchComplete,
+            ScheduledExecutorService scheduler, long window) {
+        this.device = device;
+        this.batchComplete = batchComplete;
+        this.scheduler = scheduler;
+        this.window = window;
+    }
+
+    /**
+     * Queues a command to start watering a zone
+     *
+     * @param zone the zone ID
+     * @param time the watering time in seconds
+     * @return a future that completes when the controller has accepted the command. The future is cancelled if a
+     *         later command for the zone replaces this one.
+     */
+    public CompletableFuture<Void> start(int zone, int time) {
+        return submit(new ZoneCommand(zone, true, time));
+    }
+
+    /**
+     * Queues a command to stop watering a zone
+     *
+     * @param zone the zone ID
+     * @return a future that completes when the controller has accepted the command. The future is cancelled if a
+     *         later command for the zone replaces this one.
+     */
+    public CompletableFuture<Void> stop(int zone) {
+        return submit(new ZoneCommand(zone, false, 0));
+    }
+
+    /**
+     * Cancels the commands that have not been sent yet
+     */
+    public synchronized void dispose() {
+        ScheduledFuture<?> flushJob = this.flushJob;
+        if (flushJob != null) {
+            flushJob.cancel(false);
+        }
+        this.flushJob = null;
+        pending.values().forEach(command -> command.result.cancel(false));
+        pending.clear();
+    }
+
+    private synchronized CompletableFuture<Void> submit(ZoneCommand command) {
+        // The last command for a zone wins, and takes the place of the command it replaces at the end of the batch
+        ZoneCommand replaced = pending.remove(command.zone);
+        if (replaced != null) {
+            logger.debug("Zone {}: RainMaker command {} replaced by {}", command.zone, replaced, command);
+            replaced.result.cancel(false);
+        }
+        pending.put(command.zone, command);
+
+        if (flushJob == null) {
+            flushJob = scheduler.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+        }
+        return command.result;
+    }
+
+    private synchronized void flush() {
+        flushJob = null;
+        List<ZoneCommand> batch = new ArrayList<>(pending.values());
+        pending.clear();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Batches are sent one after the other, so a later batch cannot overtake an earlier one for the same zone
+        lastBatch = lastBatch.thenCompose(previous -> send(batch)).whenComplete((result, exception) -> {
+            if (exception != null) {
+                logger.debug("RainMaker command batch failed", exception);
+            }
+            batchComplete.run();
+        }).exceptionally(exception -> null);
+    }
+
+    private CompletableFuture<Void> send(List<ZoneCommand> batch) {
+        RainMachineCommunicator device = this.device.get();
+        if (device == null) {
+            RainMachineException exception = new RainMachineException("RainMachine controller is not connected");
+            batch.forEach(command -> command.result.completeExceptionally(exception));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        logger.debug("RainMaker sending command batch {}", batch);
+        CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+        for (ZoneCommand command : batch) {
+            sent = sent.thenCompose(previous -> {
+                CompletableFuture<?> request = command.start ? device.startZoneAsync(command.zone, command.time)
+                        : device.stopZoneAsync(command.zone);
+                return request.handle((response, exception) -> {
+                    complete(command, exception);
+                    return null;
+                });
+            });
+        }
+        return sent;
+    }
+
+    private void complete(ZoneCommand command, @Nullable Throwable exception) {
+        if (exception == null) {
+            command.result.complete(null);
+        } else {
+            command.result.completeExceptionally(exception);
+        }
+    }
+
+    private static class ZoneCommand {
+        final int zone;
+        final boolean start;
+        final int time;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        ZoneCommand(int zone, boolean start, int time) {
+            this.zone = zone;
+            this.start = start;
+            this.time = time;
+        }
+
+        @Override
+        public String toString() {
+            return start ? "start " + zone + " for " + time + "s" : "stop " + zone;
+        }
+    }
+}
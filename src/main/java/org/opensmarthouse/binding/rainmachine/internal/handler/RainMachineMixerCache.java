@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.handler;
+
+import java.time.LocalDate;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineMixerDay;
+
+/**
+ * The {@link RainMachineMixerCache} holds the mixer data for a window of days around today, in a fixed number of
+ * slots indexed by date, so its size does not depend on how many days the controller returns. Days that have
+ * ended, and were read after they ended, do not change any more and are not read again. Today and the forecast days
+ * are read again on each refresh.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineMixerCache {
+
+    private final int pastDays;
+    private final int forecastDays;
+    private final @Nullable Slot[] slots;
+
+    private static class Slot {
+        final RainMachineMixerDay day;
+        final LocalDate readOn;
+
+        Slot(RainMachineMixerDay day, LocalDate readOn) {
+            this.day = day;
+            this.readOn = readOn;
+        }
+    }
+
+    /**
+     * Creates a cache
+     *
+     * @param pastDays the number of days before today that are kept
+     * @param forecastDays the number of days after today that are kept
+     */
+    public RainMachineMixerCache(int pastDays, int forecastDays) {
+        this.pastDays = pastDays;
+        this.forecastDays = forecastDays;
+        this.slots = new Slot[pastDays + 1 + forecastDays];
+    }
+
+    /**
+     * Stores the days read from the controller. Days outside the window are ignored.
+     *
+     * @param days the days read
+     * @param today the current date
+     */
+    public synchronized void put(Iterable<RainMachineMixerDay> days, LocalDate today) {
+        for (RainMachineMixerDay day : days) {
+            if (inWindow(day.getDate(), today)) {
+                slots[index(day.getDate())] = new Slot(day, today);
+            }
+        }
+    }
+
+    /**
+     * @param date the date
+     * @return the mixer data for the date, or null if it is not held
+     */
+    public synchronized @Nullable RainMachineMixerDay get(LocalDate date) {
+        Slot slot = slots[index(date)];
+        return slot != null && slot.day.getDate().equals(date) ? slot.day : null;
+    }
+
+    /**
+     * @param today the current date
+     * @return the first day of the window that must be read from the controller. All days from today onwards are
+     *         always read.
+     */
+    public synchronized LocalDate getFirstDayToRead(LocalDate today) {
+        LocalDate date = today.minusDays(pastDays);
+        while (date.isBefore(today)) {
+            Slot slot = slots[index(date)];
+            if (slot == null || !slot.day.getDate().equals(date) || !slot.readOn.isAfter(date)) {
+                break;
+            }
+            date = date.plusDays(1);
+        }
+        return date;
+    }
+
+    /**
+     * @param today the current date
+     * @return the number of days to read, from {@link #getFirstDayToRead(LocalDate)} to the end of the forecast
+     */
+    public synchronized int getDaysToRead(LocalDate today) {
+        return (int) (today.plusDays(forecastDays).toEpochDay() - getFirstDayToRead(today).toEpochDay()) + 1;
+    }
+
+    private boolean inWindow(LocalDate date, LocalDate today) {
+        return !date.isBefore(today.minusDays(pastDays)) && !date.isAfter(today.plusDays(forecastDays));
+    }
+
+    private int index(LocalDate date) {
+        return (int) Math.floorMod(date.toEpochDay(), (long) slots.length);
+    }
+}
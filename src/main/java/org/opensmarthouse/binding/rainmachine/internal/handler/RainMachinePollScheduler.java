@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.thing.ThingUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachinePollScheduler} schedules the polling of all RainMachine bridges. Each bridge is given a phase
+ * within its refresh period so that bridges are spread evenly over the period rather than all polling at once after
+ * a restart. A random jitter is added to every poll so bridges do not stay locked in step, and the number of polls
+ * running at the same time is limited.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachinePollScheduler {
+
+    /**
+     * Maximum jitter added to a poll, as a fraction of the period
+     */
+    private static final double JITTER = 0.05;
+
+    /**
+     * Delay before retrying a poll that could not run because too many polls were in progress
+     */
+    private static final long BUSY_RETRY_DELAY = 500;
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachinePollScheduler.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final Semaphore pollPermits;
+    private final long epoch = System.currentTimeMillis();
+
+    private final Map<ThingUID, PollEntry> entries = new HashMap<>();
+
+    /**
+     * A bridge poll
+     */
+    @FunctionalInterface
+    public interface PollTask {
+        /**
+         * Polls the bridge
+         *
+         * @return the number of seconds until the bridge should next be polled
+         */
+        int poll();
+    }
+
+    public RainMachinePollScheduler(ScheduledExecutorService scheduler, int maxConcurrentPolls) {
+        this.scheduler = scheduler;
+        this.pollPermits = new Semaphore(maxConcurrentPolls);
+    }
+
+    /**
+     * Registers a bridge for polling. Any existing registration for the bridge is replaced.
+     *
+     * @param uid the bridge {@link ThingUID}
+     * @param period the normal refresh period of the bridge in seconds
+     * @param task the poll task
+     */
+    public synchronized void register(ThingUID uid, int period, PollTask task) {
+        unregister(uid);
+
+        PollEntry entry = new PollEntry(uid, TimeUnit.SECONDS.toMillis(Math.max(1, period)), allocatePhase(), task);
+        entries.put(uid, entry);
+        schedule(entry, getPhaseDelay(entry, 0));
+
+        logger.debug("RainMachine {} registered for polling at phase {}", uid, entry.phase);
+    }
+
+    /**
+     * Polls a bridge as soon as a poll permit is free, rather than waiting for its next scheduled poll. The poll takes
+     * the place of the next scheduled poll, and the poll after it is scheduled from its result as usual. If the bridge
+     * is being polled, it is polled again once the current poll has finished.
+     *
+     * @param uid the bridge {@link ThingUID}
+     */
+    public synchronized void pollNow(ThingUID uid) {
+        PollEntry entry = entries.get(uid);
+        if (entry == null) {
+            return;
+        }
+
+        if (entry.running) {
+            entry.pollRequested = true;
+        } else {
+            entry.cancel();
+            schedule(entry, 0);
+        }
+    }
+
+    /**
+     * Stops polling a bridge
+     *
+     * @param uid the bridge {@link ThingUID}
+     */
+    public synchronized void unregister(ThingUID uid) {
+        PollEntry entry = entries.remove(uid);
+        if (entry != null) {
+            entry.cancel();
+        }
+    }
+
+    /**
+     * Stops polling all bridges
+     */
+    public synchronized void dispose() {
+        entries.values().forEach(PollEntry::cancel);
+        entries.clear();
+    }
+
+    /**
+     * Returns where a bridge polls within its refresh period. Bridges with the same period and a different offset poll
+     * at different times.
+     *
+     * @param uid the bridge {@link ThingUID}
+     * @return the number of seconds into each refresh period at which the bridge polls, or -1 if it is not registered
+     */
+    public synchronized long getPollOffset(ThingUID uid) {
+        PollEntry entry = entries.get(uid);
+        return entry == null ? -1 : TimeUnit.MILLISECONDS.toSeconds((long) (entry.phase * entry.period));
+    }
+
+    /**
+     * Finds the middle of the largest gap between the phases already in use, so that bridges are spread evenly
+     */
+    private double allocatePhase() {
+        if (entries.isEmpty()) {
+            return ThreadLocalRandom.current().nextDouble();
+        }
+
+        List<Double> phases = new ArrayList<>();
+        for (PollEntry entry : entries.values()) {
+            phases.add(entry.phase);
+        }
+        Collections.sort(phases);
+
+        double gapStart = phases.get(phases.size() - 1);
+        double gap = phases.get(0) + 1.0 - gapStart;
+        for (int i = 1; i < phases.size(); i++) {
+            double size = phases.get(i) - phases.get(i - 1);
+            if (size > gap) {
+                gap = size;
+                gapStart = phases.get(i - 1);
+            }
+        }
+
+        return (gapStart + gap / 2) % 1.0;
+    }
+
+    /**
+     * Returns the delay until the next time that matches the phase of a bridge, at least the given delay from now
+     */
+    private long getPhaseDelay(PollEntry entry, long minimumDelay) {
+        long now = System.currentTimeMillis();
+        long phaseOffset = (long) (entry.phase * entry.period);
+        long sincePhase = Math.floorMod(now - epoch - phaseOffset, entry.period);
+        long delay = entry.period - sincePhase;
+        while (delay < minimumDelay) {
+            delay += entry.period;
+        }
+        return delay;
+    }
+
+    private void schedule(PollEntry entry, long delay) {
+        long jitter = (long) (ThreadLocalRandom.current().nextDouble(-JITTER, JITTER) * Math.min(delay, entry.period));
+        long jitteredDelay = Math.max(0, delay + jitter);
+        long sequence = ++entry.sequence;
+        entry.job = scheduler.schedule(() -> run(entry, sequence), jitteredDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(PollEntry entry, long sequence) {
+        synchronized (this) {
+            // The poll may have been replaced by one requested with pollNow after it had started to run
+            if (entries.get(entry.uid) != entry || entry.sequence != sequence) {
+                return;
+            }
+            if (!pollPermits.tryAcquire()) {
+                logger.trace("RainMachine {} poll deferred, too many polls in progress", entry.uid);
+                schedule(entry, BUSY_RETRY_DELAY);
+                return;
+            }
+            entry.running = true;
+        }
+
+        int next;
+        try {
+            next = entry.task.poll();
+        } catch (RuntimeException e) {
+            logger.warn("RainMachine {} poll failed", entry.uid, e);
+            next = (int) TimeUnit.MILLISECONDS.toSeconds(entry.period);
+        } finally {
+            pollPermits.release();
+        }
+
+        synchronized (this) {
+            entry.running = false;
+            if (entries.get(entry.uid) != entry) {
+                return;
+            }
+            if (entry.pollRequested) {
+                entry.pollRequested = false;
+                schedule(entry, 0);
+                return;
+            }
+
+            long delay = TimeUnit.SECONDS.toMillis(Math.max(1, next));
+            if (delay == entry.period) {
+                // Back at the normal rate, so return to the allocated phase to keep the bridges spread out
+                delay = getPhaseDelay(entry, delay / 2);
+            } else if (delay > entry.period) {
+                // A longer delay, such as the circuit breaker's backoff, must not be shortened, so the poll waits for
+                // the first phase point after it, allowing for the jitter
+                delay = getPhaseDelay(entry, delay + (long) (JITTER * entry.period));
+            }
+            schedule(entry, delay);
+        }
+    }
+
+    private static class PollEntry {
+        final ThingUID uid;
+        final long period;
+        final double phase;
+        final PollTask task;
+
+        @Nullable ScheduledFuture<?> job;
+        long sequence;
+        boolean running;
+        boolean pollRequested;
+
+        PollEntry(ThingUID uid, long period, double phase, PollTask task) {
+            this.uid = uid;
+            this.period = period;
+            this.phase = phase;
+            this.task = task;
+        }
+
+        void cancel() {
+            ScheduledFuture<?> job = this.job;
+            if (job != null) {
+                job.cancel(false);
+            }
+        }
+    }
+}
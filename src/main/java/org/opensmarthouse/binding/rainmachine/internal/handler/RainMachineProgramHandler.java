@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.handler;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.library.types.DateTimeType;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.thing.Bridge;
+import org.openhab.core.thing.ChannelUID;
+import org.openhab.core.thing.Thing;
+import org.openhab.core.thing.ThingStatus;
+import org.openhab.core.thing.ThingStatusDetail;
+import org.openhab.core.thing.ThingStatusInfo;
+import org.openhab.core.thing.binding.BaseThingHandler;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.RefreshType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+import org.opensmarthouse.binding.rainmachine.internal.RainMachineBindingConstants;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineProgramInformation;
+import org.opensmarthouse.binding.rainmachine.internal.config.RainMachineProgramConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineProgramHandler} shows the state of a watering program on the controller.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineProgramHandler extends BaseThingHandler {
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineProgramHandler.class);
+
+    private @NonNullByDefault({}) RainMachineProgramConfiguration config = null;
+
+    private int publishedStatus = -1;
+    private @Nullable Boolean publishedActive;
+    private String publishedNextRun = "";
+
+    public RainMachineProgramHandler(Thing thing) {
+        super(thing);
+    }
+
+    @Override
+    public void initialize() {
+        config = getConfigAs(RainMachineProgramConfiguration.class);
+
+        Bridge bridge = getBridge();
+        if (bridge == null) {
+            logger.debug("Program {}: RainMachine bridge not found when initialising program", config.uid);
+            return;
+        }
+
+        bridgeStatusChanged(bridge.getStatusInfo());
+    }
+
+    @Override
+    public void bridgeStatusChanged(ThingStatusInfo bridgeStatusInfo) {
+        logger.debug("Program {}: RainMaker bridge status changed to {}", config.uid, bridgeStatusInfo.getStatus());
+
+        RainMachineBridgeHandler bridgeHandler = getBridgeHandler();
+        if (bridgeStatusInfo.getStatus() != ThingStatus.ONLINE) {
+            // Unregister so that the bridge's cached program list cannot set the program online again, and send every
+            // state again once the bridge is back
+            if (bridgeHandler != null) {
+                bridgeHandler.unregisterProgramStatusCallback(config.uid, this);
+            }
+            clearPublished();
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.BRIDGE_OFFLINE);
+            return;
+        }
+
+        if (bridgeHandler == null) {
+            logger.debug("Program {}: RainMaker bridge was not found!", config.uid);
+            return;
+        }
+        bridgeHandler.registerProgramStatusCallback(config.uid, this);
+    }
+
+    @Override
+    public void dispose() {
+        RainMachineBridgeHandler bridgeHandler = getBridgeHandler();
+        if (bridgeHandler != null) {
+            bridgeHandler.unregisterProgramStatusCallback(config.uid, this);
+        }
+    }
+
+    @Override
+    public void handleCommand(ChannelUID channelUID, Command command) {
+        if (command == RefreshType.REFRESH) {
+            clearPublished();
+            RainMachineBridgeHandler bridgeHandler = getBridgeHandler();
+            if (bridgeHandler != null) {
+                bridgeHandler.refreshProgram(config.uid);
+            }
+        }
+    }
+
+    /**
+     * Forgets the states sent to the channels, so that the next update sends them all again
+     */
+    private synchronized void clearPublished() {
+        publishedStatus = -1;
+        publishedActive = null;
+        publishedNextRun = "";
+    }
+
+    private @Nullable RainMachineBridgeHandler getBridgeHandler() {
+        Bridge bridge = getBridge();
+        if (bridge != null && bridge.getHandler() instanceof RainMachineBridgeHandler) {
+            return (RainMachineBridgeHandler) bridge.getHandler();
+        }
+        return null;
+    }
+
+    /**
+     * Method called by the bridge when the program list has been read
+     *
+     * @param program the program information
+     */
+    protected synchronized void updateProgram(RainMachineProgramInformation program) {
+        if (getThing().getStatus() != ThingStatus.ONLINE) {
+            updateStatus(ThingStatus.ONLINE);
+        }
+
+        updateProgramStatus(program.status);
+        Boolean active = program.active;
+        if (!active.equals(publishedActive)) {
+            publishedActive = active;
+            updateState(RainMachineBindingConstants.CHANNEL_ID_PROGRAM_ACTIVE, OnOffType.from(active));
+        }
+
+        String nextRun = program.nextRun + " " + program.startTime;
+        if (!nextRun.equals(publishedNextRun)) {
+            publishedNextRun = nextRun;
+            updateState(RainMachineBindingConstants.CHANNEL_ID_PROGRAM_NEXT_RUN, getNextRun(program));
+        }
+    }
+
+    /**
+     * Method called by the bridge when the running status of the program has been polled
+     *
+     * @param status the program status (0 = idle, 1 = running, 2 = queued)
+     */
+    protected synchronized void updateProgramStatus(int status) {
+        if (status == publishedStatus) {
+            return;
+        }
+        logger.debug("Program {}: RainMaker program status updated to {}.", config.uid, status);
+        publishedStatus = status;
+        updateState(RainMachineBindingConstants.CHANNEL_ID_PROGRAM_STATUS, new DecimalType(status));
+    }
+
+    /**
+     * Method called by the bridge when the program is not in the program list
+     */
+    protected void updateProgramGone() {
+        updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_ERROR,
+                "Program not found on the controller");
+    }
+
+    private State getNextRun(RainMachineProgramInformation program) {
+        try {
+            LocalDate date = LocalDate.parse(program.nextRun);
+            LocalTime time;
+            try {
+                time = LocalTime.parse(program.startTime);
+            } catch (DateTimeParseException e) {
+                time = LocalTime.MIDNIGHT;
+            }
+            return new DateTimeType(date.atTime(time).atZone(ZoneId.systemDefault()));
+        } catch (DateTimeParseException e) {
+            return UnDefType.UNDEF;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.handler;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.core.thing.ThingUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RainMachineStartupMonitor} measures how long the bridges take to come online after the binding starts,
+ * so that slow or unreachable controllers holding up startup can be seen in the log.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineStartupMonitor {
+
+    private final Logger logger = LoggerFactory.getLogger(RainMachineStartupMonitor.class);
+
+    private final long startTime = System.nanoTime();
+
+    // The time each bridge that has not yet come online started initialising
+    private final Map<ThingUID, Long> pendingBridges = new ConcurrentHashMap<>();
+    private final Set<ThingUID> onlineBridges = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Records that a bridge has started initialising. Bridges that have already come online once are not measured
+     * again.
+     *
+     * @param bridgeUid the bridge UID
+     */
+    public void initializing(ThingUID bridgeUid) {
+        if (!onlineBridges.contains(bridgeUid)) {
+            pendingBridges.putIfAbsent(bridgeUid, System.nanoTime());
+        }
+    }
+
+    /**
+     * Records that a bridge has come online
+     *
+     * @param bridgeUid the bridge UID
+     */
+    public void online(ThingUID bridgeUid) {
+        Long initializing = pendingBridges.remove(bridgeUid);
+        if (initializing == null) {
+            return;
+        }
+        onlineBridges.add(bridgeUid);
+
+        long now = System.nanoTime();
+        logger.debug("RainMachine {} online {}ms after initialising, {}ms after startup", bridgeUid,
+                TimeUnit.NANOSECONDS.toMillis(now - initializing), TimeUnit.NANOSECONDS.toMillis(now - startTime));
+        checkAllOnline(now);
+    }
+
+    /**
+     * Records that a bridge has been removed, so that it no longer holds up the startup measurement
+     *
+     * @param bridgeUid the bridge UID
+     */
+    public void removed(ThingUID bridgeUid) {
+        if (pendingBridges.remove(bridgeUid) != null) {
+            checkAllOnline(System.nanoTime());
+        }
+    }
+
+    private synchronized void checkAllOnline(long now) {
+        if (!pendingBridges.isEmpty() || onlineBridges.isEmpty()) {
+            return;
+        }
+        logger.info("All {} RainMachine bridges online {}ms after startup", onlineBridges.size(),
+                TimeUnit.NANOSECONDS.toMillis(now - startTime));
+    }
+}
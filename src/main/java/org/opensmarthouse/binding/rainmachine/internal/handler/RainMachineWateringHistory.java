@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.handler;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineWateringLogEntry;
+
+/**
+ * The {@link RainMachineWateringHistory} holds the latest watering cycle of each zone read from the watering log. It
+ * keeps a date cursor so that each read of the log only asks for the days that may hold new cycles, and filters out
+ * the cycles that have already been seen.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineWateringHistory {
+
+    /**
+     * The number of days read the first time the log is read
+     */
+    private static final int INITIAL_DAYS = 7;
+
+    private final Map<Integer, RainMachineWateringLogEntry> latestEntries = new HashMap<>();
+    private @Nullable LocalDate cursor;
+
+    /**
+     * @param today the current date
+     * @return the first day to read from the log
+     */
+    public synchronized LocalDate getCursor(LocalDate today) {
+        LocalDate cursor = this.cursor;
+        if (cursor == null || cursor.isAfter(today)) {
+            return today.minusDays(INITIAL_DAYS - 1);
+        }
+        return cursor;
+    }
+
+    /**
+     * @param today the current date
+     * @return the number of days to read from the log, from the cursor up to and including today
+     */
+    public synchronized int getDays(LocalDate today) {
+        return (int) ChronoUnit.DAYS.between(getCursor(today), today) + 1;
+    }
+
+    /**
+     * Adds the cycles read from the log, and moves the cursor on. The day holding the newest cycle is read again next
+     * time, as more cycles may be added to it.
+     *
+     * @param newEntries the cycles read from the log
+     * @param today the current date
+     * @return the latest new cycle of each zone that has new cycles
+     */
+    public synchronized List<RainMachineWateringLogEntry> add(List<RainMachineWateringLogEntry> newEntries,
+            LocalDate today) {
+        Map<Integer, RainMachineWateringLogEntry> updatedZones = new HashMap<>();
+
+        List<RainMachineWateringLogEntry> sortedEntries = new ArrayList<>(newEntries);
+        sortedEntries.sort(Comparator.comparingLong(entry -> entry.startTime));
+
+        long newest = 0;
+        for (RainMachineWateringLogEntry entry : sortedEntries) {
+            newest = Math.max(newest, entry.startTime);
+
+            RainMachineWateringLogEntry latest = latestEntries.get(entry.zoneUid);
+            if (latest != null && entry.startTime < latest.startTime) {
+                continue;
+            }
+            if (latest != null && entry.startTime == latest.startTime) {
+                // A cycle that was still running when last read may have a longer duration now
+                if (entry.realDuration != latest.realDuration) {
+                    latest.realDuration = entry.realDuration;
+                    updatedZones.put(entry.zoneUid, latest);
+                }
+                continue;
+            }
+
+            latestEntries.put(entry.zoneUid, entry);
+            updatedZones.put(entry.zoneUid, entry);
+        }
+
+        LocalDate newestDay = newest == 0 ? null
+                : Instant.ofEpochSecond(newest).atZone(ZoneId.systemDefault()).toLocalDate();
+        // Without new cycles the cursor moves to yesterday, so a day without watering is not read forever
+        moveCursor(newestDay == null || newestDay.isBefore(today.minusDays(1)) ? today.minusDays(1) : newestDay);
+
+        return new ArrayList<>(updatedZones.values());
+    }
+
+    /**
+     * Moves the cursor on after a read of the log has returned a response that cannot be used, as it does after a read
+     * without new cycles. A read that cannot succeed, such as one with a response that is too large, is then not
+     * repeated in full. Cycles on the days that are skipped are not shown, so this is not called when the controller
+     * could not be reached.
+     *
+     * @param today the current date
+     */
+    public synchronized void skip(LocalDate today) {
+        moveCursor(today.minusDays(1));
+    }
+
+    private void moveCursor(LocalDate cursor) {
+        LocalDate previous = this.cursor;
+        if (previous == null || cursor.isAfter(previous)) {
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * @param zoneUid the zone ID
+     * @return the latest cycle of the zone, or null if the zone has not watered since the log was first read
+     */
+    public synchronized @Nullable RainMachineWateringLogEntry getLatest(int zoneUid) {
+        return latestEntries.get(zoneUid);
+    }
+}
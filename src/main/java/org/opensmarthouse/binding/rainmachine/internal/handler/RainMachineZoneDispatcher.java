@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the OpenSmartHouse project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.opensmarthouse.binding.rainmachine.internal.handler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.opensmarthouse.binding.rainmachine.internal.api.RainMachineZoneInformation;
+
+/**
+ * The {@link RainMachineZoneDispatcher} compares each zone record with the last one sent to the zone handler, and
+ * only passes on the channels that have changed. This avoids flooding the event bus with identical states on every
+ * poll.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class RainMachineZoneDispatcher {
+
+    private final Map<Integer, ZoneSnapshot> snapshots = new HashMap<>();
+
+    private final AtomicLong dispatchedUpdates = new AtomicLong();
+    private final AtomicLong suppressedUpdates = new AtomicLong();
+
+    /**
+     * Sends the changes in a zone record to its handler
+     *
+     * @param zone the latest {@link RainMachineZoneInformation}
+     * @param zoneHandler the handler for the zone
+     */
+    public synchronized void dispatch(RainMachineZoneInformation zone, RainMachineZoneHandler zoneHandler) {
+        ZoneSnapshot snapshot = snapshots.computeIfAbsent(zone.uid, uid -> new ZoneSnapshot());
+
+        count(zoneHandler.updateZoneOnline());
+
+        if (!snapshot.valid || snapshot.state != zone.state) {
+            zoneHandler.updateZoneState(zone.state);
+            count(true);
+        } else {
+            count(false);
+        }
+
+        if (!snapshot.valid || snapshot.active != zone.active) {
+            zoneHandler.updateZoneActive(zone.active);
+            count(true);
+        } else {
+            count(false);
+        }
+
+        // A running zone always receives its remaining time so that the local countdown can be corrected
+        boolean running = zone.state == RainMachineZoneInformation.STATE_RUNNING;
+        if (!snapshot.valid || snapshot.remaining != zone.remaining || running) {
+            zoneHandler.updateZoneRemaining(zone.remaining, running);
+            count(true);
+        } else {
+            count(false);
+        }
+
+        snapshot.update(zone);
+    }
+
+    /**
+     * Forgets the last state sent for a zone, so that the next dispatch sends all channels
+     *
+     * @param uid the zone ID
+     */
+    public synchronized void invalidate(int uid) {
+        snapshots.remove(uid);
+    }
+
+    /**
+     * Forgets the last state sent for all zones
+     */
+    public synchronized void invalidateAll() {
+        snapshots.clear();
+    }
+
+    /**
+     * @return the number of status and channel updates sent to zone handlers
+     */
+    public long getDispatchedUpdates() {
+        return dispatchedUpdates.get();
+    }
+
+    /**
+     * @return the number of status and channel updates that were not sent because nothing changed
+     */
+    public long getSuppressedUpdates() {
+        return suppressedUpdates.get();
+    }
+
+    private void count(boolean dispatched) {
+        if (dispatched) {
+            dispatchedUpdates.incrementAndGet();
+        } else {
+            suppressedUpdates.incrementAndGet();
+        }
+    }
+
+    private static class ZoneSnapshot {
+        boolean valid;
+        int state;
+        boolean active;
+        int remaining;
+
+        void update(RainMachineZoneInformation zone) {
+            valid = true;
+            state = zone.state;
+            active = zone.active;
+            remaining = zone.remaining;
+        }
+    }
+}
@@ -12,13 +12,24 @@
  */
 package org.opensmarthouse.binding.rainmachine.internal.handler;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.library.types.DateTimeType;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.thing.Bridge;
 import org.openhab.core.thing.ChannelUID;
 import org.openhab.core.thing.Thing;
 import org.openhab.core.thing.ThingStatus;
+import org.openhab.core.thing.ThingStatusDetail;
 import org.openhab.core.thing.ThingStatusInfo;
 import org.openhab.core.thing.binding.BaseThingHandler;
 import org.openhab.core.types.Command;
@@ -48,6 +59,11 @@ public class RainMachineZoneHandler extends BaseThingHandler {
 
     private @Nullable Bridge bridge;
 
+    private @Nullable ScheduledFuture<?> countdownJob;
+    private int countdownStart;
+    private long countdownStartTime;
+    private int publishedRemaining = -1;
+
     /*
      * Constructor class. Only call the parent constructor
      */
@@ -68,9 +84,23 @@ public class RainMachineZoneHandler extends BaseThingHandler {
         bridgeStatusChanged(bridge.getStatusInfo());
     }
 
+    @Override
+    public void dispose() {
+        stopCountdown();
+        clearPublished();
+    }
+
     @Override
     public void bridgeStatusChanged(ThingStatusInfo bridgeStatusInfo) {
         logger.debug("Zone {}: RainMaker bridge status changed to {}", config.uid, bridgeStatusInfo.getStatus());
+        clearPublished();
+
+        if (bridgeStatusInfo.getStatus() == ThingStatus.OFFLINE) {
+            // The zone comes back online with the first zone update once the bridge has registered it again
+            stopCountdown();
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.BRIDGE_OFFLINE);
+            return;
+        }
 
         if (getBridge() == null || getBridge().getHandler() == null) {
             logger.debug("Zone {}: RainMaker bridge was not found!", config.uid);
@@ -82,26 +112,137 @@ public class RainMachineZoneHandler extends BaseThingHandler {
 
     @Override
     public void handleCommand(ChannelUID channelUID, Command command) {
+        Bridge bridge = getBridge();
+        if (bridge == null || !(bridge.getHandler() instanceof RainMachineBridgeHandler)) {
+            return;
+        }
+        RainMachineBridgeHandler bridgeHandler = (RainMachineBridgeHandler) bridge.getHandler();
+
         if (command == RefreshType.REFRESH) {
-            // scheduler.execute(this::updateBridge);
+            clearPublished();
+            bridgeHandler.refreshZone(config.uid);
+            return;
+        }
+
+        if (RainMachineBindingConstants.CHANNEL_ID_ZONE_RUN.equals(channelUID.getId())
+                && command instanceof OnOffType) {
+            boolean start = command == OnOffType.ON;
+            CompletableFuture<Void> result = start ? bridgeHandler.startZone(config.uid, config.duration)
+                    : bridgeHandler.stopZone(config.uid);
+            result.whenComplete((response, exception) -> {
+                if (exception == null) {
+                    logger.debug("Zone {}: RainMaker zone {}", config.uid, start ? "started" : "stopped");
+                } else if (!(exception instanceof CancellationException)) {
+                    // Show the zone as it was, as the controller did not take the command
+                    logger.warn("Zone {}: RainMaker could not {} zone: {}", config.uid, start ? "start" : "stop",
+                            exception.getMessage());
+                    updateState(RainMachineBindingConstants.CHANNEL_ID_ZONE_RUN, OnOffType.from(!start));
+                }
+            });
         }
     }
 
     /**
-     * Method called by the bridge when zone information is updated
+     * Method called by the bridge when zone information has been received. The status is only updated if it changed.
      *
-     * @param zone the latest {@link RainMachineZoneInformation}. If null, then the bridge has detected an error.
+     * @return true if the status was updated
      */
-    protected void updateZoneInformation(@Nullable RainMachineZoneInformation zone) {
-        if (zone == null) {
-            updateStatus(ThingStatus.OFFLINE);
-            return;
+    protected boolean updateZoneOnline() {
+        if (getThing().getStatus() == ThingStatus.ONLINE) {
+            return false;
         }
-
         updateStatus(ThingStatus.ONLINE);
-        logger.debug("Zone {}: RainMaker zone updated to {}.", config.uid, zone);
+        return true;
+    }
+
+    /**
+     * Method called by the bridge when the zone watering state has changed
+     *
+     * @param state the zone state (0 = inactive, 1 = running, 2 = queued)
+     */
+    protected void updateZoneState(int state) {
+        logger.debug("Zone {}: RainMaker zone state updated to {}.", config.uid, state);
+        if (state != RainMachineZoneInformation.STATE_RUNNING) {
+            stopCountdown();
+        }
+        updateState(RainMachineBindingConstants.CHANNEL_ID_ZONE_STATE, new DecimalType(state));
+        updateState(RainMachineBindingConstants.CHANNEL_ID_ZONE_RUN,
+                OnOffType.from(state != RainMachineZoneInformation.STATE_INACTIVE));
+    }
+
+    /**
+     * Method called by the bridge when the zone active flag has changed
+     *
+     * @param active true if the zone can be watered
+     */
+    protected void updateZoneActive(boolean active) {
+        updateState(RainMachineBindingConstants.CHANNEL_ID_ZONE_ACTIVE, OnOffType.from(active));
+    }
+
+    /**
+     * Method called by the bridge when the remaining watering time has changed, and on every poll while the zone is
+     * running. While running, the remaining time is counted down locally between polls, and the countdown is reset to
+     * the polled value each time this is called.
+     *
+     * @param remaining the remaining watering time in seconds
+     * @param running true if the zone is currently running
+     */
+    protected synchronized void updateZoneRemaining(int remaining, boolean running) {
+        if (running && remaining > 0 && config.countdownRate > 0) {
+            countdownStart = remaining;
+            countdownStartTime = System.nanoTime();
+            if (countdownJob == null) {
+                countdownJob = scheduler.scheduleAtFixedRate(this::countdown, config.countdownRate,
+                        config.countdownRate, TimeUnit.SECONDS);
+            }
+        } else {
+            stopCountdown();
+        }
+
+        publishRemaining(remaining);
+    }
+
+    private synchronized void countdown() {
+        long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - countdownStartTime);
+        int remaining = (int) Math.max(0, countdownStart - elapsed);
+        publishRemaining(remaining);
+        if (remaining == 0) {
+            stopCountdown();
+        }
+    }
 
-        updateState(RainMachineBindingConstants.CHANNEL_ID_ZONE_STATE, new DecimalType(zone.state));
+    private synchronized void stopCountdown() {
+        ScheduledFuture<?> countdownJob = this.countdownJob;
+        if (countdownJob != null) {
+            countdownJob.cancel(false);
+        }
+        this.countdownJob = null;
     }
 
+    /**
+     * Method called by the bridge when the watering log shows that the zone has watered
+     *
+     * @param startTime the start of the last cycle, in seconds since the epoch
+     * @param duration the time the zone watered in the last cycle, in seconds
+     */
+    protected void updateZoneLastRun(long startTime, int duration) {
+        updateState(RainMachineBindingConstants.CHANNEL_ID_ZONE_LAST_RUN,
+                new DateTimeType(ZonedDateTime.ofInstant(Instant.ofEpochSecond(startTime), ZoneId.systemDefault())));
+        updateState(RainMachineBindingConstants.CHANNEL_ID_ZONE_LAST_DURATION, new DecimalType(duration));
+    }
+
+    /**
+     * Forgets the remaining time sent to the channel, so that the next update sends it again
+     */
+    private synchronized void clearPublished() {
+        publishedRemaining = -1;
+    }
+
+    private void publishRemaining(int remaining) {
+        if (remaining == publishedRemaining) {
+            return;
+        }
+        publishedRemaining = remaining;
+        updateState(RainMachineBindingConstants.CHANNEL_ID_ZONE_REMAINING, new DecimalType(remaining));
+    }
 }